@@ -10,6 +10,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import com.google.appengine.api.datastore.Query.SortPredicate;
+import com.google.appengine.api.utils.FutureWrapper;
 import com.google.appengine.repackaged.com.google.io.protocol.ProtocolMessage;
 import com.google.apphosting.api.ApiProxy;
 import com.google.apphosting.api.DatastorePb;
@@ -104,6 +105,46 @@ public class AsyncDatastoreHelper
 		};
 	}
 
+	public static Future<Void> delete(final Transaction txn, final Iterable<Key> keys)
+	{
+		final DatastorePb.DeleteRequest req = new DatastorePb.DeleteRequest();
+
+		final SimpleObjectReference<Future<byte[]>> futureBytes = new SimpleObjectReference<Future<byte[]>>();
+		new TransactionRunner(txn, false)  // never auto-commit
+		{
+			@Override
+			protected void run()
+			{
+				if (txn != null)
+				{
+					req.setTransaction(DatastoreServiceImpl.localTxnToRemoteTxn(txn));
+				}
+
+				for (Key key : keys)
+				{
+					req.addKey(KeyTranslator.convertToPb(key));
+				}
+
+				futureBytes.set(makeAsyncCall("Delete", req));
+			}
+		}.runInTransaction();
+
+		return new FutureWrapper<byte[], Void>(futureBytes.get())
+		{
+			@Override
+			protected Throwable convertException(Throwable e)
+			{
+				return e;
+			}
+
+			@Override
+			protected Void wrap(byte[] bytes) throws Exception
+			{
+				return null;
+			}
+		};
+	}
+
 	static Future<byte[]> makeAsyncCall(String method, ProtocolMessage<?> request)
 	{
 		try
@@ -25,6 +25,7 @@ public interface ObjectDatastore extends Activator
 
 	// updating
 	void update(Object instance);
+	void updateAll(Collection<?> instances);
 	void storeOrUpdate(Object instance);
 	void storeOrUpdate(Object instance, Object parent);
 
@@ -65,5 +66,21 @@ public interface ObjectDatastore extends Activator
 	// transactions
 	Transaction beginTransaction();
 	Transaction getTransaction();
+
+	/**
+	 * Queue writes of entities with complete keys and deletes in the session
+	 * until {@link #flush()} is called. Disabling the unit of work flushes
+	 * any queued writes.
+	 * 
+	 * Queued writes are flushed when a transaction begins and writes made
+	 * while a transaction is active are sent directly so they are committed
+	 * or rolled back with it.
+	 */
+	void setUnitOfWork(boolean enabled);
+
+	/**
+	 * Send all queued writes and deletes to the datastore
+	 */
+	void flush();
 	
 }
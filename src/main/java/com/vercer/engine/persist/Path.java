@@ -2,10 +2,10 @@ package com.vercer.engine.persist;
 
 import java.util.AbstractList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import com.google.common.collect.AbstractIterator;
 import com.vercer.util.Strings;
 
 public class Path implements Comparable<Path>
@@ -69,20 +69,34 @@ public class Path implements Comparable<Path>
 		}
 		public Builder append(Part part)
 		{
-			builder.append(part.text);
+			builder.append(part.source, part.begin, part.end);
 			return this;
 		}
 	}
 
 	public static class Part
 	{
+		private final String source;
+		private final int begin;
+		private final int end;
+
+		private Part(String source, int begin, int end)
+		{
+			this.source = source;
+			this.begin = begin;
+			this.end = end;
+		}
+
 		@Override
 		public int hashCode()
 		{
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + ((text == null) ? 0 : text.hashCode());
-			return result;
+			// same as the String hash of the text without creating it
+			int result = 0;
+			for (int i = begin; i < end; i++)
+			{
+				result = 31 * result + source.charAt(i);
+			}
+			return 31 + result;
 		}
 
 		@Override
@@ -95,55 +109,35 @@ public class Path implements Comparable<Path>
 			if (getClass() != obj.getClass())
 				return false;
 			Part other = (Part) obj;
-			if (text == null)
-			{
-				if (other.text != null)
-					return false;
-			}
-			else if (!text.equals(other.text))
-				return false;
-			return true;
-		}
-
-		private final String text;
-
-		private Part(String text)
-		{
-			this.text = text;
+			int length = end - begin;
+			return length == other.end - other.begin &&
+				source.regionMatches(begin, other.source, other.begin, length);
 		}
 
 		public boolean isField()
 		{
-			return text.charAt(0) == FIELD;
+			return source.charAt(begin) == FIELD;
 		}
 
 		public boolean isMeta()
 		{
-			return text.charAt(0) == TYPE;
+			return source.charAt(begin) == TYPE;
 		}
 		
 		public boolean isRoot()
 		{
-			char c = text.charAt(0);
-			for (char seperator : SEPERATORS)
-			{
-				if (c == seperator)
-				{
-					return false;
-				}
-			}
-			return true;
+			return !isSeperator(source.charAt(begin));
 		}
 
 		public String getName()
 		{
 			if (isRoot())
 			{
-				return text;
+				return source.substring(begin, end);
 			}
 			else
 			{
-				return text.substring(1);
+				return source.substring(begin + 1, end);
 			}
 		}
 		
@@ -151,101 +145,122 @@ public class Path implements Comparable<Path>
 		{
 			return Integer.parseInt(getName());
 		}
+
+		@Override
+		public String toString()
+		{
+			return source.substring(begin, end);
+		}
 	}
 
+	// bounded pool of paths that are read from many entities
+	private static final int MAXIMUM_INTERNED = 10000;
+	private static final ConcurrentMap<String, Path> interned = new ConcurrentHashMap<String, Path>();
+
 	private final String value;
 
+	// the start of each part which is the index of its separator except for the first
+	// volatile so other threads never see the array before its elements are set
+	private volatile int[] offsets;
+	private int hash;
+
 	public Path(String value)
 	{
 		this.value = value;
 	}
 
-	public List<Part> getParts()
+	/**
+	 * @return A shared instance for frequently used paths so that their parts
+	 *         are only found once
+	 */
+	public static Path intern(String value)
 	{
-		return new AbstractList<Part>()
+		Path path = interned.get(value);
+		if (path == null)
 		{
-			@Override
-			public Part get(int index)
+			path = new Path(value);
+			if (interned.size() < MAXIMUM_INTERNED)
 			{
-				int begin;
-				if (index == 0)
+				Path existing = interned.putIfAbsent(value, path);
+				if (existing != null)
 				{
-					begin = 0;
+					path = existing;
 				}
-				else
+			}
+		}
+		return path;
+	}
+
+	private int[] offsets()
+	{
+		// threads may race to calculate the same offsets
+		int[] result = offsets;
+		if (result == null)
+		{
+			int count = value.length() == 0 ? 0 : 1;
+			for (int i = 1; i < value.length(); i++)
+			{
+				if (isSeperator(value.charAt(i)))
 				{
-					begin = Strings.nthIndexOf(value, index, SEPERATORS);
+					count++;
 				}
-				if (begin >= 0)
+			}
+
+			result = new int[count];
+			int index = 1;
+			for (int i = 1; i < value.length(); i++)
+			{
+				if (isSeperator(value.charAt(i)))
 				{
-					int end = Strings.firstIndexOf(value, begin + 1, SEPERATORS);
-					if (end > 0)
-					{
-						return new Part(value.substring(begin, end));
-					}
-					else
-					{
-						return new Part(value.substring(begin));
-					}
-				}
-				else
-				{
-					return null;
+					result[index++] = i;
 				}
 			}
+			offsets = result;
+		}
+		return result;
+	}
 
+	private Part part(int[] offsets, int index)
+	{
+		int begin = offsets[index];
+		int end = index + 1 < offsets.length ? offsets[index + 1] : value.length();
+		return new Part(value, begin, end);
+	}
+
+	public List<Part> getParts()
+	{
+		final int[] offsets = offsets();
+		return new AbstractList<Part>()
+		{
 			@Override
-			public int size()
+			public Part get(int index)
 			{
-				if (value.length() == 0)
+				if (index < offsets.length)
 				{
-					return 0;
+					return part(offsets, index);
 				}
-				int index = 0;
-				int count = 0;
-				do
+				else
 				{
-					index = Strings.firstIndexOf(value, index + 2, SEPERATORS);
-					count++;
+					return null;
 				}
-				while (index > 0);
-
-				return count;
 			}
 
 			@Override
-			public Iterator<Part> iterator()
+			public int size()
 			{
-				return new AbstractIterator<Part>()
-				{
-					private int index;
-
-					@Override
-					protected Part computeNext()
-					{
-						if (index < 0)
-						{
-							return null;
-						}
-
-						int nextIndex = Strings.firstIndexOf(value, index + 1, SEPERATORS);
-						String substring;
-						if (nextIndex > 0)
-						{
-							substring = value.substring(index, nextIndex);
-						}
-						else
-						{
-							substring = value.substring(index);
-						}
-						index = nextIndex;
-						return new Part(substring);
-					}
-				};
+				return offsets.length;
 			}
 		};
 	}
 
+	/**
+	 * @return The number of parts in this path
+	 */
+	public int size()
+	{
+		return offsets().length;
+	}
+
 	public Path tail(int start)
 	{
 		int index = Strings.nthIndexOf(value, start, SEPERATORS);
@@ -269,11 +284,11 @@ public class Path implements Comparable<Path>
 		int index = Strings.firstIndexOf(value, SEPERATORS);
 		if (index > 0)
 		{
-			return new Part(value.substring(0, index));
+			return new Part(value, 0, index);
 		}
 		else
 		{
-			return new Part(value);
+			return new Part(value, 0, value.length());
 		}
 	}
 
@@ -284,15 +299,7 @@ public class Path implements Comparable<Path>
 	
 	public boolean isAbsolute()
 	{
-		char c = value.charAt(0);
-		for (char seperator : SEPERATORS)
-		{
-			if (c == seperator)
-			{
-				return false;
-			}
-		}
-		return true;
+		return !isSeperator(value.charAt(0));
 	}
 
 	@Override
@@ -309,30 +316,39 @@ public class Path implements Comparable<Path>
 			isSeperator(value.charAt(path.value.length()))));
 	}
 
-	private boolean isSeperator(char c)
+	private static boolean isSeperator(char c)
 	{
-		for (char sperator : SEPERATORS)
-		{
-			if (c == sperator)
-			{
-				return true;
-			}
-		}
-		return false;
+		return c == FIELD || c == TYPE;
 	}
 
 	public Part firstPartAfterPrefix(Path prefix)
 	{
 		assert hasPrefix(prefix);
-		return getParts().get(prefix.getParts().size());
+
+		// the part starts where the prefix ends so no need to count parts
+		int begin = prefix.value.length();
+		if (begin >= value.length())
+		{
+			return null;
+		}
+		int end = begin + 1;
+		while (end < value.length() && !isSeperator(value.charAt(end)))
+		{
+			end++;
+		}
+		return new Part(value, begin, end);
 	}
 
 	@Override
 	public int hashCode()
 	{
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((value == null) ? 0 : value.hashCode());
+		int result = hash;
+		if (result == 0)
+		{
+			final int prime = 31;
+			result = prime + value.hashCode();
+			hash = result;
+		}
 		return result;
 	}
 
@@ -352,6 +368,10 @@ public class Path implements Comparable<Path>
 			return false;
 		}
 		Path other = (Path) obj;
+		if (hash != 0 && other.hash != 0 && hash != other.hash)
+		{
+			return false;
+		}
 		if (!value.equals(other.value))
 		{
 			return false;
@@ -0,0 +1,10 @@
+package com.vercer.engine.persist;
+
+/**
+ * Receives properties as they are encoded so that no intermediate
+ * {@link java.util.Set} of properties needs to be built.
+ */
+public interface PropertySink
+{
+	void property(Path path, Object value, boolean indexed);
+}
@@ -0,0 +1,15 @@
+package com.vercer.engine.persist;
+
+/**
+ * A translator that can write its properties directly to a sink. Use
+ * {@link com.vercer.engine.persist.util.PropertySinks} to encode with any
+ * translator whether it streams or not.
+ */
+public interface StreamingPropertyTranslator extends PropertyTranslator
+{
+	/**
+	 * @return false if the instance could not be handled in which case
+	 *         nothing must have been written to the sink
+	 */
+	public boolean typesafeToSink(Object instance, Path path, boolean indexed, PropertySink sink);
+}
@@ -15,6 +15,14 @@ public class AnnotationObjectDatastore extends StrategyObjectDatastore
 		this(new AnnotationStrategy(indexed, defaultVersion));
 	}
 
+	/**
+	 * @param compressed Compress large Blob and Text values of fields without {@link Compress}
+	 */
+	public AnnotationObjectDatastore(boolean indexed, int defaultVersion, boolean compressed)
+	{
+		this(new AnnotationStrategy(indexed, defaultVersion, compressed), null);
+	}
+
 	public AnnotationObjectDatastore(boolean indexed)
 	{
 		this(new AnnotationStrategy(indexed, 0));
@@ -25,8 +33,11 @@ public class AnnotationObjectDatastore extends StrategyObjectDatastore
 		this(new AnnotationStrategy(true, 0), fields);
 	}
 
+	/**
+	 * @param fields The field strategy or null to use the annotation strategy
+	 */
 	protected AnnotationObjectDatastore(AnnotationStrategy strategy, FieldStrategy fields)
 	{
-		super(strategy, strategy, strategy, strategy, fields);
+		super(strategy, strategy, strategy, strategy, fields == null ? strategy : fields);
 	}
 }
@@ -5,16 +5,24 @@ import java.lang.reflect.Modifier;
 
 import com.vercer.engine.persist.strategy.CombinedStrategy;
 import com.vercer.engine.persist.strategy.DefaultFieldStrategy;
+import com.vercer.engine.persist.strategy.EncodingStrategy;
 import com.vercer.engine.persist.util.generic.GenericTypeReflector;
 
-public class AnnotationStrategy extends DefaultFieldStrategy implements CombinedStrategy
+public class AnnotationStrategy extends DefaultFieldStrategy implements CombinedStrategy, EncodingStrategy
 {
 	private final boolean indexed;
+	private final boolean compressed;
 
 	public AnnotationStrategy(boolean indexPropertiesDefault, int defaultVersion)
+	{
+		this(indexPropertiesDefault, defaultVersion, false);
+	}
+
+	public AnnotationStrategy(boolean indexPropertiesDefault, int defaultVersion, boolean compressPropertiesDefault)
 	{
 		super(defaultVersion);
 		this.indexed = indexPropertiesDefault;
+		this.compressed = compressPropertiesDefault;
 	}
 
 	public boolean child(Field field)
@@ -141,6 +149,31 @@ public class AnnotationStrategy extends DefaultFieldStrategy implements Combined
 		}
 	}
 
+	public boolean packed(Field field)
+	{
+		Packed annotation = field.getAnnotation(Packed.class);
+		return annotation != null && annotation.value();
+	}
+
+	public boolean compact(Field field)
+	{
+		Compact annotation = field.getAnnotation(Compact.class);
+		return annotation != null && annotation.value();
+	}
+
+	public boolean compress(Field field)
+	{
+		Compress annotation = field.getAnnotation(Compress.class);
+		if (annotation != null)
+		{
+			return annotation.value();
+		}
+		else
+		{
+			return compressed;
+		}
+	}
+
 	public boolean entity(Field field)
 	{
 		return field.isAnnotationPresent(Parent.class) ||
@@ -0,0 +1,17 @@
+package com.vercer.engine.persist.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Store a map as a list property of keys and a list property of values
+ * instead of a property for every key.
+ */
+@Target(ElementType.FIELD) 
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Compact
+{
+	boolean value() default true;
+}
@@ -0,0 +1,17 @@
+package com.vercer.engine.persist.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Deflate large Blob and Text values of this field when that makes them
+ * smaller. Overrides the default set on the strategy.
+ */
+@Target(ElementType.FIELD) 
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Compress
+{
+	boolean value() default true;
+}
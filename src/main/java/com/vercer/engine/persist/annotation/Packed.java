@@ -0,0 +1,17 @@
+package com.vercer.engine.persist.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Store a primitive array or collection of numbers as a single unindexed
+ * Blob instead of a list property.
+ */
+@Target(ElementType.FIELD) 
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Packed
+{
+	boolean value() default true;
+}
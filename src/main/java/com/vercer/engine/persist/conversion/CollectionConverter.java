@@ -4,16 +4,16 @@
 package com.vercer.engine.persist.conversion;
 
 import java.lang.reflect.Array;
-import java.lang.reflect.GenericArrayType;
-import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 
-import com.vercer.engine.persist.util.generic.GenericTypeReflector;
+import com.vercer.engine.persist.util.generic.CachedTypeReflector;
 
 /**
  * Handles conversions from any Collection type or Array to either a HashSet,
@@ -31,34 +31,49 @@ public class CollectionConverter implements TypeConverter
 {
 	private final TypeConverter delegate;
 
+	// subclasses written before collections were filled in one pass
+	private final boolean createsInstances;
+
 	public CollectionConverter(TypeConverter delegate)
 	{
 		this.delegate = delegate;
+		this.createsInstances = overridesCreateCollectionInstance();
+	}
+
+	private boolean overridesCreateCollectionInstance()
+	{
+		for (Class<?> current = getClass(); current != CollectionConverter.class; current = current.getSuperclass())
+		{
+			try
+			{
+				current.getDeclaredMethod("createCollectionInstance", Class.class, Type.class, List.class);
+				return true;
+			}
+			catch (NoSuchMethodException e)
+			{
+				// look in the super class
+			}
+		}
+		return false;
 	}
 
+	@SuppressWarnings("unchecked")
 	public <T> T convert(Object source, Type type)
 	{
-		// attempt to convert input into an array
-		Object[] items = null;
+		// view the input as a collection without copying it
+		Collection<?> items = null;
 		if (source instanceof Collection<?>)
 		{
-			items = ((Collection<?>) source).toArray();
+			items = (Collection<?>) source;
 		}
 		else if (source instanceof Object[])
 		{
-			items = (Object[]) source;
+			items = Arrays.asList((Object[]) source);
 		}
 		else if (source.getClass().isArray())
 		{
 			// must be a primitive array
-			Class<?> componentType = source.getClass().getComponentType();
-			Class<?> wrapper = PrimitiveTypeConverter.getWrapperClassForPrimitive(componentType);
-			int length = Array.getLength(source);
-			items = (Object[]) Array.newInstance(wrapper, length);
-			for (int i = 0; i < length; i++)
-			{
-				items[i] = Array.get(source, i);
-			}
+			items = Arrays.asList(box(source));
 		}
 
 		if (items == null)
@@ -66,95 +81,296 @@ public class CollectionConverter implements TypeConverter
 			// signal we did not handle the conversion by returning null
 			return null;
 		}
-		else
+
+		// get the item type so we can convert them
+		Class<?> erased = CachedTypeReflector.erase(type);
+		Type componentType = CachedTypeReflector.getComponentType(type);
+		if (componentType == null)
 		{
-			// get the item type so we can convert them
-			Class<?> erased = GenericTypeReflector.erase(type);
-			Type componentType = null;
-			if (type instanceof GenericArrayType)
-			{
-				// we need a generic array like Provider<Twig>[]
-				componentType = ((GenericArrayType) type).getGenericComponentType();
-			}
-			else if (erased.isArray())
+			throw new IllegalArgumentException("Unsupported collection type " + type);
+		}
+
+		if (createsInstances)
+		{
+			// convert all the items before creating the collection
+			List<Object> convertedItems = new ArrayList<Object>(items.size());
+			for (Object item : items)
 			{
-				// we need an array like Twig[]
-				componentType = erased.getComponentType();
+				convertedItems.add(convertItem(item, componentType));
 			}
-			else if (Collection.class.isAssignableFrom(erased))
+			return this.<T>createCollectionInstance(erased, componentType, convertedItems);
+		}
+
+		// the source can be used as it is if it is already the right type of
+		// collection or array and no item needs converting
+		boolean reuse;
+		if (erased.isArray())
+		{
+			reuse = erased.isInstance(source);
+		}
+		else
+		{
+			Class<?> target = collectionClass(erased);
+			reuse = target != null && target.isInstance(source);
+		}
+
+		// fill the final collection in one pass
+		Collection<Object> result = null;
+		int checked = 0;
+		for (Object item : items)
+		{
+			Object converted = convertItem(item, componentType);
+			if (result == null && (converted != item || !reuse))
 			{
-				// we need some type of collection like Set<Twig>
-				Type exact = GenericTypeReflector.getExactSuperType(type, Collection.class);
-				componentType = ((ParameterizedType) exact).getActualTypeArguments()[0];
+				// copy the items already checked
+				result = createCollection(erased, componentType, items.size());
+				Iterator<?> unchanged = items.iterator();
+				for (int i = 0; i < checked; i++)
+				{
+					result.add(unchanged.next());
+				}
 			}
-			else
+			if (result != null)
 			{
-				throw new IllegalArgumentException("Unsupported collection type " + type);
+				result.add(converted);
 			}
+			checked++;
+		}
 
-			// convert all the items
-			List<Object> convertedItems = new ArrayList<Object>(items.length);
-			for (Object item : items)
+		if (result == null)
+		{
+			if (reuse)
 			{
-				if (item != null)
-				{
-					item = delegate.convert(item, componentType);
-					if (item == null)
-					{
-						throw new IllegalStateException("Could not convert list item " + item + " to " + componentType);
-					}
-				}
-				convertedItems.add(item);
+				return (T) source;
 			}
+			result = createCollection(erased, componentType, 0);
+		}
 
-			return this.<T>createCollectionInstance(erased, componentType, convertedItems);
+		if (erased.isArray())
+		{
+			return (T) toArray(CachedTypeReflector.erase(componentType), (List<Object>) result);
+		}
+		return (T) result;
+	}
+
+	private Object convertItem(Object item, Type componentType)
+	{
+		if (item == null)
+		{
+			return null;
+		}
+
+		Object converted = delegate.convert(item, componentType);
+		if (converted == null)
+		{
+			throw new IllegalStateException("Could not convert list item " + item + " to " + componentType);
+		}
+		return converted;
+	}
+
+	/**
+	 * @return The class of collection created for the type or null for arrays
+	 */
+	protected Class<?> collectionClass(Class<?> erased)
+	{
+		if (erased.isAssignableFrom(HashSet.class))
+		{
+			return HashSet.class;
+		}
+		else if (erased.isAssignableFrom(ArrayList.class))
+		{
+			return ArrayList.class;
+		}
+		else if (erased.isAssignableFrom(EnumSet.class))
+		{
+			return EnumSet.class;
+		}
+		else
+		{
+			return null;
 		}
 	}
 
+	/**
+	 * @deprecated Still called with the converted items when a subclass
+	 *             overrides it but then every item is copied before the
+	 *             collection is created. Override
+	 *             {@link #createCollection(Class, Type, int)} instead.
+	 */
+	@Deprecated
 	@SuppressWarnings("unchecked")
 	protected <T> T createCollectionInstance(Class<?> erased, Type componentType, List<Object> convertedItems)
 	{
-		// convert the list of items to the required collection type
+		Collection<Object> result = createCollection(erased, componentType, convertedItems.size());
+		result.addAll(convertedItems);
+
+		if (erased.isArray())
+		{
+			return (T) toArray(CachedTypeReflector.erase(componentType), (List<Object>) result);
+		}
+		return (T) result;
+	}
+
+	/**
+	 * Creates an empty collection of the required type which is filled with
+	 * the converted items. Arrays are collected in a list first.
+	 */
+	@SuppressWarnings("unchecked")
+	protected Collection<Object> createCollection(Class<?> erased, Type componentType, int size)
+	{
 		if (erased.isAssignableFrom(HashSet.class))
 		{
-			T result = (T) new HashSet<Object>(convertedItems);
+			return new HashSet<Object>((int) (size / 0.75f) + 1);
+		}
+		else if (erased.isAssignableFrom(ArrayList.class) || erased.isArray())
+		{
+			return new ArrayList<Object>(size);
+		}
+		else if (erased.isAssignableFrom(EnumSet.class))
+		{
+			Class<?> enumClass = CachedTypeReflector.erase(componentType);
+			return EnumSet.noneOf((Class<? extends Enum>) enumClass);
+		}
+		else
+		{
+			throw new IllegalArgumentException("Unsupported Collection type " + erased
+					+ ". Try declaring the interface instead of the concrete collection type.");
+		}
+	}
+
+	private static Object toArray(Class<?> arrayClass, List<Object> items)
+	{
+		if (arrayClass.isPrimitive())
+		{
+			return unbox(arrayClass, items);
+		}
+		Object[] array = (Object[]) Array.newInstance(arrayClass, items.size());
+		return items.toArray(array);
+	}
+
+	// typed loops avoid the reflective Array.get and Array.set per item
+	private static Object[] box(Object array)
+	{
+		Class<?> type = array.getClass().getComponentType();
+		if (type == Long.TYPE)
+		{
+			long[] values = (long[]) array;
+			Long[] result = new Long[values.length];
+			for (int i = 0; i < values.length; i++)
+			{
+				result[i] = values[i];
+			}
 			return result;
 		}
-		else if (erased.isAssignableFrom(ArrayList.class))
+		else if (type == Integer.TYPE)
+		{
+			int[] values = (int[]) array;
+			Integer[] result = new Integer[values.length];
+			for (int i = 0; i < values.length; i++)
+			{
+				result[i] = values[i];
+			}
+			return result;
+		}
+		else if (type == Double.TYPE)
 		{
-			T result = (T) convertedItems;
+			double[] values = (double[]) array;
+			Double[] result = new Double[values.length];
+			for (int i = 0; i < values.length; i++)
+			{
+				result[i] = values[i];
+			}
 			return result;
 		}
-		else if (erased.isAssignableFrom(EnumSet.class))
+		else if (type == Boolean.TYPE)
+		{
+			boolean[] values = (boolean[]) array;
+			Boolean[] result = new Boolean[values.length];
+			for (int i = 0; i < values.length; i++)
+			{
+				result[i] = values[i];
+			}
+			return result;
+		}
+		else
+		{
+			Class<?> wrapper = PrimitiveTypeConverter.getWrapperClassForPrimitive(type);
+			int length = Array.getLength(array);
+			Object[] result = (Object[]) Array.newInstance(wrapper, length);
+			for (int i = 0; i < length; i++)
+			{
+				result[i] = Array.get(array, i);
+			}
+			return result;
+		}
+	}
+
+	private static Object unbox(Class<?> type, List<Object> items)
+	{
+		int size = items.size();
+		if (type == Long.TYPE)
+		{
+			long[] result = new long[size];
+			for (int i = 0; i < size; i++)
+			{
+				// null items are left as the default value
+				if (items.get(i) != null)
+				{
+					result[i] = ((Number) items.get(i)).longValue();
+				}
+			}
+			return result;
+		}
+		else if (type == Integer.TYPE)
 		{
-			EnumSet enumSet = EnumSet.noneOf((Class<? extends Enum>) componentType);
-			for (Object item : convertedItems)
+			int[] result = new int[size];
+			for (int i = 0; i < size; i++)
 			{
-				Enum<?> e;
-				if (item instanceof Enum<?> == false)
+				// null items are left as the default value
+				if (items.get(i) != null)
 				{
-					Enum<?> tmp = Enum.valueOf((Class<? extends Enum>) erased, (String) item);
-					e = tmp;
+					result[i] = ((Number) items.get(i)).intValue();
 				}
-				else
+			}
+			return result;
+		}
+		else if (type == Double.TYPE)
+		{
+			double[] result = new double[size];
+			for (int i = 0; i < size; i++)
+			{
+				// null items are left as the default value
+				if (items.get(i) != null)
 				{
-					e = (Enum<?>) item;
+					result[i] = ((Number) items.get(i)).doubleValue();
 				}
-				enumSet.add(e);
 			}
-			return (T) enumSet;
+			return result;
 		}
-		else if (erased.isArray())
+		else if (type == Boolean.TYPE)
 		{
-			Class<?> arrayClass = GenericTypeReflector.erase(componentType);
-			Object[] array = (Object[]) Array.newInstance(arrayClass, convertedItems.size());
-			T result = (T) convertedItems.toArray(array);
+			boolean[] result = new boolean[size];
+			for (int i = 0; i < size; i++)
+			{
+				// null items are left as the default value
+				if (items.get(i) != null)
+				{
+					result[i] = (Boolean) items.get(i);
+				}
+			}
 			return result;
 		}
 		else
 		{
-			throw new IllegalArgumentException("Unsupported Collection type " + erased
-					+ ". Try declaring the interface instead of the concrete collection type.");
+			Object result = Array.newInstance(type, size);
+			for (int i = 0; i < size; i++)
+			{
+				if (items.get(i) != null)
+				{
+					Array.set(result, i, items.get(i));
+				}
+			}
+			return result;
 		}
 	}
-}
\ No newline at end of file
+}
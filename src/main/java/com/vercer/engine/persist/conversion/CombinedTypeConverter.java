@@ -1,20 +1,25 @@
 package com.vercer.engine.persist.conversion;
 
-import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import com.vercer.engine.persist.util.generic.GenericTypeReflector;
-import com.vercer.util.Pair;
+import com.vercer.engine.persist.util.generic.CachedTypeReflector;
 
 public class CombinedTypeConverter implements TypeConverter
 {
-	private final List<SpecificTypeConverter<?, ?>> specifics = new ArrayList<SpecificTypeConverter<?,?>>();
-	private final List<TypeConverter> generals = new ArrayList<TypeConverter>();
-	private final Map<Pair<Type, Type>, SpecificTypeConverter<?, ?>> cache = new HashMap<Pair<Type,Type>, SpecificTypeConverter<?,?>>();
+	private final List<SpecificTypeConverter<?, ?>> specifics = new CopyOnWriteArrayList<SpecificTypeConverter<?,?>>();
+	private final List<TypeConverter> generals = new CopyOnWriteArrayList<TypeConverter>();
+
+	// resolved converter, identity or none for each source class and target type
+	private final ConcurrentMap<Class<?>, ConcurrentMap<Type, Object>> dispatch = new ConcurrentHashMap<Class<?>, ConcurrentMap<Type,Object>>();
+	private static final Object IDENTITY = new Object();
+	private static final Object NONE = new Object();
+
+	// types should be canonical but do not let uncanonical ones grow the table forever
+	private static final int MAXIMUM_TARGETS = 500;
 
 	/* (non-Javadoc)
 	 * @see com.vercer.engine.persist.conversion.TypeConverter#convert(java.lang.Object, java.lang.reflect.Type)
@@ -23,42 +28,88 @@ public class CombinedTypeConverter implements TypeConverter
 	public <T> T convert(Object source, Type type)
 	{
 		// try the specific converters first
-		SpecificTypeConverter<? super Object, ? extends T> specific = null;
 		if (source != null)
 		{
-			 specific = (SpecificTypeConverter<? super Object, ? extends T>) converter(source.getClass(), type);
+			Object resolved = resolve(source.getClass(), type);
+			if (resolved == IDENTITY)
+			{
+				return (T) source;
+			}
+			else if (resolved != NONE)
+			{
+				return ((SpecificTypeConverter<? super Object, ? extends T>) resolved).convert(source);
+			}
 		}
 
-		if (specific == null)
+		// try the general converters
+		for (TypeConverter general : generals)
 		{
-			// try the general converters
-			for (TypeConverter general : generals)
+			Object result = general.convert(source, type);
+			if (result != null)
 			{
-				Object result = general.convert(source, type);
-				if (result != null)
+				if (result == nullValue)
+				{
+					return null;
+				}
+				else
 				{
-					if (result == nullValue)
-					{
-						return null;
-					}
-					else
-					{
-						return (T) result;
-					}
+					return (T) result;
 				}
 			}
+		}
 
-			throw new IllegalStateException("Cannot convert " + source + " to " + type);
+		throw new IllegalStateException("Cannot convert " + source + " to " + type);
+	}
+
+	private Object resolve(Class<?> from, Type to)
+	{
+		ConcurrentMap<Type, Object> targets = dispatch.get(from);
+		if (targets == null)
+		{
+			targets = new ConcurrentHashMap<Type, Object>();
+			ConcurrentMap<Type, Object> existing = dispatch.putIfAbsent(from, targets);
+			if (existing != null)
+			{
+				targets = existing;
+			}
 		}
-		else
+
+		Object resolved = targets.get(to);
+		if (resolved == null)
 		{
-			return specific.convert(source);
+			if (isIdentity(from, to))
+			{
+				resolved = IDENTITY;
+			}
+			else
+			{
+				resolved = findConverter(from, to);
+				if (resolved == null)
+				{
+					resolved = NONE;
+				}
+			}
+			if (targets.size() < MAXIMUM_TARGETS)
+			{
+				targets.put(to, resolved);
+			}
 		}
+		return resolved;
+	}
+
+	/**
+	 * @return true if values of the class can be used as the type without
+	 *         conversion. Only called once for each pair of types.
+	 */
+	protected boolean isIdentity(Class<?> from, Type to)
+	{
+		return false;
 	}
 
 	public void register(SpecificTypeConverter<?, ?> specific)
 	{
 		specifics.add(specific);
+		dispatch.clear();
 	}
 
 	public void register(TypeConverter general)
@@ -74,29 +125,38 @@ public class CombinedTypeConverter implements TypeConverter
 	public void prepend(SpecificTypeConverter<?, ?> converter)
 	{
 		specifics.add(0, converter);
+		dispatch.clear();
 	}
 
 	public SpecificTypeConverter<?, ?> converter(Type from, Type to)
 	{
-		Pair<Type, Type> pair = new Pair<Type, Type>(from, to);
-		if (cache.containsKey(pair))
+		if (from instanceof Class<?>)
 		{
-			return cache.get(pair);
+			Object resolved = resolve((Class<?>) from, to);
+			if (resolved == IDENTITY || resolved == NONE)
+			{
+				// assignable types may still have a specific converter
+				return findConverter(from, to);
+			}
+			return (SpecificTypeConverter<?, ?>) resolved;
 		}
 		else
 		{
-			for (SpecificTypeConverter<?, ?> converter : specifics)
+			return findConverter(from, to);
+		}
+	}
+
+	private SpecificTypeConverter<?, ?> findConverter(Type from, Type to)
+	{
+		for (SpecificTypeConverter<?, ?> converter : specifics)
+		{
+			Type[] arguments = CachedTypeReflector.getTypeArguments(converter.getClass(), SpecificTypeConverter.class);
+			if (CachedTypeReflector.isSuperType(arguments[0], from) &&
+					CachedTypeReflector.isSuperType(to, arguments[1]))
 			{
-				Type type = GenericTypeReflector.getExactSuperType(converter.getClass(), SpecificTypeConverter.class);
-				Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
-				if (GenericTypeReflector.isSuperType(arguments[0], from) &&
-						GenericTypeReflector.isSuperType(to, arguments[1]))
-				{
-					cache.put(pair, converter);
-					return converter;
-				}
+				return converter;
 			}
-			return null;
 		}
+		return null;
 	}
 }
@@ -10,21 +10,27 @@ import java.lang.reflect.Type;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.Date;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.appengine.api.datastore.Blob;
 import com.google.appengine.api.datastore.Text;
-import com.vercer.engine.persist.util.generic.GenericTypeReflector;
+import com.vercer.engine.persist.util.generic.CachedTypeReflector;
+import com.vercer.engine.persist.util.io.BlobCodec;
+import com.vercer.engine.persist.util.io.CompactBlobCodec;
 import com.vercer.engine.persist.util.io.NoDescriptorObjectInputStream;
 import com.vercer.engine.persist.util.io.NoDescriptorObjectOutputStream;
-import com.vercer.util.Pair;
 
 public class DefaultTypeConverter extends CombinedTypeConverter
 {
-	private static Map<Pair<Type, Class<?>>, Boolean> superTypes = new ConcurrentHashMap<Pair<Type, Class<?>>, Boolean>();
-
 	public DefaultTypeConverter()
+	{
+		this(null);
+	}
+
+	/**
+	 * @param codec Encodes blobs before falling back to Java serialization
+	 *            or null to always use serialization e.g. a {@link CompactBlobCodec}
+	 */
+	public DefaultTypeConverter(BlobCodec codec)
 	{
 		register(new PrimitiveTypeConverter());
 		register(new CollectionConverter(this));
@@ -38,44 +44,14 @@ public class DefaultTypeConverter extends CombinedTypeConverter
 		register(new ByteArrayToBlob());
 		register(new BlobToByteArray());
 
-		register(new SerializableToBlob());
-		register(new BlobToAnything());
+		register(new SerializableToBlob(codec));
+		register(new BlobToAnything(codec));
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
-	public <T> T convert(Object source, Type type)
+	protected boolean isIdentity(Class<?> from, Type to)
 	{
-		if (source != null && isSuperType(type, source.getClass()))
-		{
-			return (T) source;
-		}
-		else
-		{
-			// use the registered converters
-			return (T) super.convert(source, type);
-		}
-	}
-
-	private static boolean isSuperType(Type type, Class<? extends Object> clazz)
-	{
-		if (type == clazz)
-		{
-			return true;
-		}
-
-		Pair<Type, Class<?>> key = new Pair<Type, Class<?>>(type, clazz);
-		Boolean superType = superTypes.get(key);
-		if (superType != null)
-		{
-			return superType;
-		}
-		else
-		{
-			boolean result = GenericTypeReflector.isSuperType(type, clazz);
-			superTypes.put(key, result);
-			return result;
-		}
+		return CachedTypeReflector.isSuperType(to, from);
 	}
 
 	public static class StringToText implements SpecificTypeConverter<String, Text>
@@ -112,8 +88,29 @@ public class DefaultTypeConverter extends CombinedTypeConverter
 
 	public static class SerializableToBlob implements SpecificTypeConverter<Serializable, Blob>
 	{
+		private final BlobCodec codec;
+
+		public SerializableToBlob()
+		{
+			this(null);
+		}
+
+		public SerializableToBlob(BlobCodec codec)
+		{
+			this.codec = codec;
+		}
+
 		public Blob convert(Serializable source)
 		{
+			if (codec != null)
+			{
+				byte[] encoded = codec.encode(source);
+				if (encoded != null)
+				{
+					return new Blob(encoded);
+				}
+			}
+
 			try
 			{
 				ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
@@ -145,11 +142,29 @@ public class DefaultTypeConverter extends CombinedTypeConverter
 	
 	public static class BlobToAnything implements TypeConverter
 	{
+		private final BlobCodec codec;
+
+		public BlobToAnything()
+		{
+			this(null);
+		}
+
+		public BlobToAnything(BlobCodec codec)
+		{
+			this.codec = codec;
+		}
+
 		public Object convert(Blob blob)
 		{
+			byte[] bytes = blob.getBytes();
+			if (codec != null && codec.isEncoded(bytes))
+			{
+				return codec.decode(bytes);
+			}
+
 			try
 			{
-				ByteArrayInputStream bais = new ByteArrayInputStream(blob.getBytes());
+				ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
 				ObjectInputStream stream = createObjectInputStream(bais);
 				return stream.readObject();
 			}
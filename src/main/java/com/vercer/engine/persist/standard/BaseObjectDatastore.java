@@ -123,6 +123,9 @@ public abstract class BaseObjectDatastore implements ObjectDatastore
 		{
 			throw new IllegalStateException("Already in active transaction");
 		}
+
+		// queued writes must not be committed with the transaction
+		flush();
 		transaction = service.beginTransaction();
 		return transaction;
 	}
@@ -0,0 +1,39 @@
+package com.vercer.engine.persist.standard;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyRange;
+
+/**
+ * Reserves ids using the datastore so they are never assigned to entities
+ * that are put without an id.
+ */
+public class DatastoreIdAllocator implements IdAllocator
+{
+	private final DatastoreService service;
+
+	public DatastoreIdAllocator()
+	{
+		this(DatastoreServiceFactory.getDatastoreService());
+	}
+
+	public DatastoreIdAllocator(DatastoreService service)
+	{
+		this.service = service;
+	}
+
+	public long allocate(Key parent, String kind, int size)
+	{
+		KeyRange range;
+		if (parent == null)
+		{
+			range = service.allocateIds(kind, size);
+		}
+		else
+		{
+			range = service.allocateIds(parent, kind, size);
+		}
+		return range.getStart().getId();
+	}
+}
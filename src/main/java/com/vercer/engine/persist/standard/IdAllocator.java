@@ -0,0 +1,16 @@
+package com.vercer.engine.persist.standard;
+
+import com.google.appengine.api.datastore.Key;
+
+/**
+ * Reserves blocks of ids so that new entities can be given complete keys
+ * before they are put.
+ */
+public interface IdAllocator
+{
+	/**
+	 * @param parent The parent key of the entities or null for root entities
+	 * @return The first of size contiguous ids that will not be used again
+	 */
+	long allocate(Key parent, String kind, int size);
+}
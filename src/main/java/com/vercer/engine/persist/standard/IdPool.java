@@ -0,0 +1,107 @@
+package com.vercer.engine.persist.standard;
+
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Hands out ids from blocks reserved by an {@link IdAllocator} so that a
+ * new entity can have a complete key without being put first. There is a
+ * block for each kind and optionally for each parent key. Otherwise child
+ * entities share the ids of their kind which are still unique because a
+ * key includes its parent.
+ */
+public class IdPool
+{
+	private static class Block
+	{
+		private long next;
+		private long end;
+	}
+
+	private static final class BlockKey
+	{
+		private final Key parent;
+		private final String kind;
+
+		private BlockKey(Key parent, String kind)
+		{
+			this.parent = parent;
+			this.kind = kind;
+		}
+
+		@Override
+		public boolean equals(Object object)
+		{
+			if (object instanceof BlockKey == false)
+			{
+				return false;
+			}
+			BlockKey other = (BlockKey) object;
+			return kind.equals(other.kind) && (parent == null ? other.parent == null : parent.equals(other.parent));
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return kind.hashCode() * 31 + (parent == null ? 0 : parent.hashCode());
+		}
+	}
+
+	private final IdAllocator allocator;
+	private final int blockSize;
+	private final boolean perParent;
+
+	// unused ids of a discarded block are simply never used
+	private final ConcurrentMap<BlockKey, Block> blocks = new MapMaker().softValues().makeMap();
+
+	public IdPool(IdAllocator allocator, int blockSize)
+	{
+		this(allocator, blockSize, false);
+	}
+
+	/**
+	 * @param perParent Reserve ids under each parent key instead of for the kind
+	 */
+	public IdPool(IdAllocator allocator, int blockSize, boolean perParent)
+	{
+		if (blockSize < 1)
+		{
+			throw new IllegalArgumentException("Block size must be positive");
+		}
+		this.allocator = allocator;
+		this.blockSize = blockSize;
+		this.perParent = perParent;
+	}
+
+	public long next(Key parent, String kind)
+	{
+		if (!perParent)
+		{
+			parent = null;
+		}
+
+		BlockKey key = new BlockKey(parent, kind);
+		Block block = blocks.get(key);
+		if (block == null)
+		{
+			Block created = new Block();
+			block = blocks.putIfAbsent(key, created);
+			if (block == null)
+			{
+				block = created;
+			}
+		}
+
+		synchronized (block)
+		{
+			if (block.next == block.end)
+			{
+				block.next = allocator.allocate(parent, kind, blockSize);
+				block.end = block.next + blockSize;
+			}
+			return block.next++;
+		}
+	}
+}
@@ -4,8 +4,10 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
+import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.common.collect.MapMaker;
+import com.vercer.engine.persist.util.Entities;
 import com.vercer.util.reference.ObjectReference;
 import com.vercer.util.reference.SimpleObjectReference;
 
@@ -15,6 +17,11 @@ public class KeyCache
 	{
 		private static final long serialVersionUID = 1L;
 		private boolean activated;
+
+		// copy of the properties last read or written and their fingerprint
+		private Entity snapshot;
+		private long fingerprint;
+
 		public ActivatableKeyReference(Key object)
 		{
 			super(object);
@@ -68,6 +75,15 @@ public class KeyCache
 		}
 	}
 
+	/**
+	 * Removes the key reference of an instance that was never stored without
+	 * resolving it because its key may not be known
+	 */
+	public void evictKeyReference(Object instance)
+	{
+		cacheByValue.remove(instance);
+	}
+
 	public Object evictKey(Key key)
 	{
 		Object object = cacheByKey.remove(key);
@@ -128,6 +144,39 @@ public class KeyCache
 		}
 	}
 
+	/**
+	 * Remember the properties last read or written for the instance
+	 */
+	public void snapshot(Object instance, Entity entity, long fingerprint)
+	{
+		ObjectReference<Key> reference = cacheByValue.get(instance);
+		if (reference instanceof ActivatableKeyReference)
+		{
+			ActivatableKeyReference activatable = (ActivatableKeyReference) reference;
+			activatable.snapshot = Entities.snapshot(entity);
+			activatable.fingerprint = fingerprint;
+		}
+	}
+
+	/**
+	 * @return true if the instance has a snapshot with the same properties
+	 */
+	public boolean isUnchanged(Object instance, Entity entity, long fingerprint)
+	{
+		ObjectReference<Key> reference = cacheByValue.get(instance);
+		if (reference instanceof ActivatableKeyReference)
+		{
+			ActivatableKeyReference activatable = (ActivatableKeyReference) reference;
+
+			// the fingerprint rules out most changes but a match is confirmed
+			// by comparing values so a hash collision cannot skip a write
+			return activatable.snapshot != null
+				&& activatable.fingerprint == fingerprint
+				&& Entities.equalProperties(activatable.snapshot, entity);
+		}
+		return false;
+	}
+
 	public boolean containsKey(Key key)
 	{
 		return cacheByKey.containsKey(key);
@@ -0,0 +1,29 @@
+package com.vercer.engine.persist.standard;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.api.datastore.Key;
+
+/**
+ * Reserves ids from a counter in memory which is only safe when nothing
+ * else writes the same kinds, such as in tests.
+ */
+public class LocalIdAllocator implements IdAllocator
+{
+	private final AtomicLong next;
+
+	public LocalIdAllocator()
+	{
+		this(1);
+	}
+
+	public LocalIdAllocator(long first)
+	{
+		next = new AtomicLong(first);
+	}
+
+	public long allocate(Key parent, String kind, int size)
+	{
+		return next.getAndAdd(size);
+	}
+}
@@ -0,0 +1,282 @@
+package com.vercer.engine.persist.standard;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.vercer.engine.persist.util.Entities;
+
+/**
+ * Splits entities into batches that fit within the datastore limits on the
+ * number of entities and the size of a put. Each full batch is put
+ * asynchronously so more entities can be encoded while it is in flight.
+ * Once the maximum number of puts are in flight the oldest is waited for.
+ * Every batch is put by {@link StrategyObjectDatastore#entitiesToKeysLater(List)}.
+ */
+class PutPipeline<T>
+{
+	public static final int DEFAULT_MAXIMUM_ENTITIES = 500;
+	public static final int DEFAULT_MAXIMUM_BYTES = 1 << 20;
+	public static final int DEFAULT_MAXIMUM_IN_FLIGHT = 2;
+
+	private static class Batch<T>
+	{
+		private final List<T> items;
+		private final Future<List<Key>> keys;
+
+		private Batch(List<T> items, Future<List<Key>> keys)
+		{
+			this.items = items;
+			this.keys = keys;
+		}
+	}
+
+	private final StrategyObjectDatastore datastore;
+	private final int maximumEntities;
+	private final int maximumBytes;
+	private final int maximumInFlight;
+
+	private final Deque<Batch<T>> inFlight = new ArrayDeque<Batch<T>>();
+	private List<T> items = new ArrayList<T>();
+	private List<Entity> entities = new ArrayList<Entity>();
+	private int bytes;
+	private boolean cancelled;
+
+	PutPipeline(StrategyObjectDatastore datastore, int maximumEntities, int maximumBytes, int maximumInFlight)
+	{
+		this.datastore = datastore;
+		this.maximumEntities = maximumEntities;
+		this.maximumBytes = maximumBytes;
+		this.maximumInFlight = maximumInFlight;
+	}
+
+	/**
+	 * Called with the key of each item once its batch has been put
+	 */
+	protected void stored(T item, Key key)
+	{
+	}
+
+	void add(T item, Entity entity)
+	{
+		int size = Entities.estimateSize(entity);
+
+		// a single entity larger than the limit is still put on its own
+		if (!entities.isEmpty() && (entities.size() == maximumEntities || bytes + size > maximumBytes))
+		{
+			send();
+		}
+
+		items.add(item);
+		entities.add(entity);
+		bytes += size;
+	}
+
+	/**
+	 * Put any partly filled batch without waiting for it
+	 */
+	void send()
+	{
+		if (entities.isEmpty())
+		{
+			return;
+		}
+
+		// leave room for this batch
+		waitUntilInFlight(maximumInFlight - 1);
+
+		inFlight.addLast(new Batch<T>(items, datastore.entitiesToKeysLater(entities)));
+
+		items = new ArrayList<T>();
+		entities = new ArrayList<Entity>();
+		bytes = 0;
+	}
+
+	/**
+	 * Put all remaining entities and wait for every batch to complete
+	 */
+	void flush()
+	{
+		send();
+		waitUntilInFlight(0);
+	}
+
+	/**
+	 * Wait for the batches already sent without sending any others so the
+	 * items that were put are known after a failure. Failed batches are dropped.
+	 */
+	void drain()
+	{
+		items = new ArrayList<T>();
+		entities = new ArrayList<Entity>();
+		bytes = 0;
+
+		while (!inFlight.isEmpty())
+		{
+			List<Key> keys;
+			try
+			{
+				keys = get(inFlight.getFirst().keys);
+			}
+			catch (RuntimeException e)
+			{
+				// the items of this batch were not put
+				inFlight.removeFirst();
+				continue;
+			}
+			complete(keys);
+		}
+	}
+
+	private void waitUntilInFlight(int remaining)
+	{
+		while (inFlight.size() > remaining)
+		{
+			complete(get(inFlight.getFirst().keys));
+		}
+	}
+
+	/**
+	 * Waits for the result throwing any runtime exception that caused it to fail
+	 */
+	static <V> V get(Future<V> future)
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Wait for the batches already sent to complete
+	 */
+	void await(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+	{
+		checkCancelled();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!inFlight.isEmpty())
+		{
+			long remaining = deadline - System.nanoTime();
+			complete(inFlight.getFirst().keys.get(remaining, TimeUnit.NANOSECONDS));
+		}
+	}
+
+	void await() throws InterruptedException, ExecutionException
+	{
+		checkCancelled();
+		while (!inFlight.isEmpty())
+		{
+			complete(inFlight.getFirst().keys.get());
+		}
+	}
+
+	boolean isDone()
+	{
+		if (cancelled)
+		{
+			return true;
+		}
+		for (Batch<T> batch : inFlight)
+		{
+			if (!batch.keys.isDone())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	boolean cancel(boolean mayInterruptIfRunning)
+	{
+		// a finished put can no longer be cancelled
+		if (isDone())
+		{
+			return false;
+		}
+
+		for (Batch<T> batch : inFlight)
+		{
+			batch.keys.cancel(mayInterruptIfRunning);
+		}
+		cancelled = true;
+		return true;
+	}
+
+	boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	private void checkCancelled()
+	{
+		if (cancelled)
+		{
+			throw new CancellationException();
+		}
+	}
+
+	/**
+	 * A future that already has its result
+	 */
+	static <V> Future<V> done(final V value)
+	{
+		return new Future<V>()
+		{
+			public boolean cancel(boolean mayInterruptIfRunning)
+			{
+				return false;
+			}
+
+			public boolean isCancelled()
+			{
+				return false;
+			}
+
+			public boolean isDone()
+			{
+				return true;
+			}
+
+			public V get()
+			{
+				return value;
+			}
+
+			public V get(long timeout, TimeUnit unit)
+			{
+				return value;
+			}
+		};
+	}
+
+	private void complete(List<Key> keys)
+	{
+		// only remove the batch once its keys have been received
+		Batch<T> batch = inFlight.removeFirst();
+		for (int i = 0; i < keys.size(); i++)
+		{
+			stored(batch.items.get(i), keys.get(i));
+		}
+	}
+}
@@ -2,17 +2,16 @@ package com.vercer.engine.persist.standard;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import com.google.appengine.api.datastore.AsyncDatastoreHelper;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.Transaction;
-import com.google.appengine.api.utils.FutureWrapper;
 import com.google.common.collect.Maps;
 import com.vercer.engine.persist.StoreCommand.CommonStoreCommand;
 
@@ -65,31 +64,57 @@ abstract class StandardBaseStoreCommand<T, C extends CommonStoreCommand<T, C>> i
 
 	Future<Map<T, Key>> storeResultsLater()
 	{
-		Transaction transaction = command.datastore.getTransaction();
 		final Map<T, Entity> entities = command.datastore.instancesToEntities(instances, parent, batch);
 		if (unique)
 		{
 			checkUniqueKeys(entities.values());
 		}
-		final Future<List<Key>> put = AsyncDatastoreHelper.put(transaction, entities.values());
 
-		return new FutureWrapper<List<Key>, Map<T,Key>>(put)
+		// send every batch that fits the datastore limits without waiting for any
+		final PutPipeline<T> pipeline = command.datastore.createLaterPutPipeline();
+		for (Map.Entry<T, Entity> entry : entities.entrySet())
 		{
-			@Override
-			protected Throwable convertException(Throwable t)
+			pipeline.add(entry.getKey(), entry.getValue());
+		}
+		pipeline.send();
+
+		return new Future<Map<T, Key>>()
+		{
+			public boolean cancel(boolean mayInterruptIfRunning)
+			{
+				return pipeline.cancel(mayInterruptIfRunning);
+			}
+
+			public boolean isCancelled()
+			{
+				return pipeline.isCancelled();
+			}
+
+			public boolean isDone()
+			{
+				return pipeline.isDone();
+			}
+
+			public Map<T, Key> get() throws InterruptedException, ExecutionException
+			{
+				pipeline.await();
+				return keys();
+			}
+
+			public Map<T, Key> get(long timeout, TimeUnit unit) throws InterruptedException,
+					ExecutionException, TimeoutException
 			{
-				return t;
+				pipeline.await(timeout, unit);
+				return keys();
 			}
 
-			@Override
-			protected Map<T, Key> wrap(List<Key> list) throws Exception
+			private Map<T, Key> keys()
 			{
+				// keys of the put entities are completed in place
 				LinkedHashMap<T, Key> result = Maps.newLinkedHashMap();
-				Iterator<T> instances = entities.keySet().iterator();
-				Iterator<Key> keys = list.iterator();
-				while (instances.hasNext())
+				for (Map.Entry<T, Entity> entry : entities.entrySet())
 				{
-					result.put(instances.next(), keys.next());
+					result.put(entry.getKey(), entry.getValue().getKey());
 				}
 				return result;
 			}
@@ -7,17 +7,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
+import com.google.appengine.api.datastore.AsyncDatastoreHelper;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.FetchOptions;
@@ -30,7 +34,6 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.vercer.engine.persist.FindCommand;
 import com.vercer.engine.persist.LoadCommand;
 import com.vercer.engine.persist.Path;
@@ -43,19 +46,28 @@ import com.vercer.engine.persist.conversion.TypeConverter;
 import com.vercer.engine.persist.strategy.ActivationStrategy;
 import com.vercer.engine.persist.strategy.CacheStrategy;
 import com.vercer.engine.persist.strategy.CombinedStrategy;
+import com.vercer.engine.persist.strategy.EncodingStrategy;
 import com.vercer.engine.persist.strategy.FieldStrategy;
 import com.vercer.engine.persist.strategy.RelationshipStrategy;
 import com.vercer.engine.persist.strategy.StorageStrategy;
+import com.vercer.engine.persist.strategy.TypeDictionary;
 import com.vercer.engine.persist.translator.ChainedTranslator;
+import com.vercer.engine.persist.translator.CompactMapTranslator;
+import com.vercer.engine.persist.translator.CompressingTranslator;
 import com.vercer.engine.persist.translator.CoreStringTypesTranslator;
 import com.vercer.engine.persist.translator.EnumTranslator;
 import com.vercer.engine.persist.translator.ListTranslator;
 import com.vercer.engine.persist.translator.MapTranslator;
+import com.vercer.engine.persist.translator.NativeCollectionTranslator;
 import com.vercer.engine.persist.translator.NativeDirectTranslator;
+import com.vercer.engine.persist.translator.PackedTranslator;
 import com.vercer.engine.persist.translator.ObjectFieldTranslator;
 import com.vercer.engine.persist.translator.PolymorphicTranslator;
 import com.vercer.engine.persist.util.Entities;
+import com.vercer.engine.persist.util.PropertyBuffer;
 import com.vercer.engine.persist.util.PropertySets;
+import com.vercer.engine.persist.util.PropertySinks;
+import com.vercer.util.FieldAccessor;
 import com.vercer.util.Reflection;
 import com.vercer.util.reference.ObjectReference;
 
@@ -84,6 +96,7 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 	private final PropertyTranslator childTranslator;
 	private final ChainedTranslator valueTranslatorChain;
 	private final PropertyTranslator defaultTranslator;
+	private final PropertyTranslator compactMapTranslator;
 
 	// TODO refactor this into an InstanceStrategy
 	private final KeyCache keyCache;
@@ -97,6 +110,44 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 	
 	private Map<Object, Entity> batched;
 
+	/**
+	 * Flag that indicates a subclass chooses field translators for each value
+	 * so they cannot be held in the field mappings
+	 */
+	private final boolean valueDependentTranslators;
+
+	/**
+	 * Instances reached while storing a graph that have been encoded but not yet put
+	 */
+	private Map<Object, GraphNode> graph;
+	private List<GraphNode> unbuilt;
+
+	private int maximumBatchEntities = PutPipeline.DEFAULT_MAXIMUM_ENTITIES;
+	private int maximumBatchBytes = PutPipeline.DEFAULT_MAXIMUM_BYTES;
+	private int maximumPutsInFlight = PutPipeline.DEFAULT_MAXIMUM_IN_FLIGHT;
+
+	/**
+	 * Flag that indicates batches are sent with low level async calls instead of the configured service
+	 */
+	private boolean asynchronousPuts = true;
+
+	/**
+	 * Writes and deletes queued by a unit of work or null when writing directly
+	 */
+	private Map<Key, Entity> pendingPuts;
+	private Set<Key> pendingDeletes;
+
+	/**
+	 * Flag that indicates a copy of each entity read or written is kept so
+	 * updates that change nothing are not put
+	 */
+	private boolean dirtyChecking;
+
+	/**
+	 * Reserved ids given to new instances without one or null to let the datastore assign ids on put
+	 */
+	private IdPool idPool;
+
 	private TypeConverter converter;
 
 	// TODO make all these private when commands have no logic
@@ -106,6 +157,12 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 	protected final StorageStrategy storageStrategy;
 	protected final CacheStrategy cacheStrategy;
 
+	// null if the storage strategy does not choose how values are encoded
+	private final EncodingStrategy encodingStrategy;
+
+	// translators of value fields which are decided by the strategies once
+	private final Map<Field, PropertyTranslator> valueTranslators = new HashMap<Field, PropertyTranslator>();
+
 	public StrategyObjectDatastore(CombinedStrategy strategy)
 	{
 		this(strategy, strategy, strategy, strategy, strategy);
@@ -126,6 +183,10 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		this.fieldStrategy = fieldStrategy;
 		this.relationshipStrategy = relationshipStrategy;
 		this.storageStrategy = storageStrategy;
+		this.encodingStrategy = storageStrategy instanceof EncodingStrategy ? (EncodingStrategy) storageStrategy : null;
+
+		valueDependentTranslators = overrides("encoder", Field.class, Object.class) ||
+				overrides("decoder", Field.class, Set.class);
 
 		converter = createTypeConverter();
 
@@ -133,14 +194,20 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		objectFieldTranslator = new StrategyObjectFieldTranslator(converter);
 
 		valueTranslatorChain = createValueTranslatorChain();
+		if (isTypeOnly(valueTranslatorChain))
+		{
+			// translators added by a subclass may decide by value
+			valueTranslatorChain.setSelectionCached(true);
+		}
 
 		parentTranslator = new ParentEntityTranslator(this);
 		independantTranslator = new EntityTranslator(this);
 		keyFieldTranslator = new KeyFieldTranslator(this, valueTranslatorChain, converter);
 		childTranslator = new ChildEntityTranslator(this);
 		embedTranslator = new ListTranslator(objectFieldTranslator);
-		polyMorphicComponentTranslator = new ListTranslator(new MapTranslator(new PolymorphicTranslator(objectFieldTranslator, fieldStrategy), converter));
-		defaultTranslator = new ListTranslator(new MapTranslator(new ChainedTranslator(valueTranslatorChain, getFallbackTranslator()), converter));
+		polyMorphicComponentTranslator = new ListTranslator(new MapTranslator(new PolymorphicTranslator(objectFieldTranslator, fieldStrategy, createTypeDictionary()), converter));
+		defaultTranslator = new NativeCollectionTranslator(new ListTranslator(new MapTranslator(new ChainedTranslator(valueTranslatorChain, getFallbackTranslator()), converter)));
+		compactMapTranslator = new CompactMapTranslator(defaultTranslator, valueTranslatorChain);
 
 		keyCache = createKeyCache();
 	}
@@ -149,6 +216,15 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 	{
 		return new KeyCache();
 	}
+
+	/**
+	 * Override to register ids which are stored instead of the class names of
+	 * polymorphic embedded values
+	 */
+	protected TypeDictionary createTypeDictionary()
+	{
+		return new TypeDictionary();
+	}
 	
 	protected PropertyTranslator decoder(Entity entity)
 	{
@@ -160,16 +236,41 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		return objectFieldTranslator;
 	}
 	
+	/**
+	 * Override to choose a translator for each value of a field. Otherwise the
+	 * result of {@link #translator(Field)} is used for every value.
+	 */
 	protected PropertyTranslator decoder(Field field, Set<Property> properties)
 	{
 		return translator(field);
 	}
 
+	/**
+	 * Override to choose a translator for each value of a field. Otherwise the
+	 * result of {@link #translator(Field)} is used for every value.
+	 */
 	protected PropertyTranslator encoder(Field field, Object instance)
 	{
 		return translator(field);
 	}
 
+	private boolean overrides(String name, Class<?>... parameters)
+	{
+		for (Class<?> current = getClass(); current != StrategyObjectDatastore.class; current = current.getSuperclass())
+		{
+			try
+			{
+				current.getDeclaredMethod(name, parameters);
+				return true;
+			}
+			catch (NoSuchMethodException e)
+			{
+				// look in the super class
+			}
+		}
+		return false;
+	}
+
 	protected PropertyTranslator translator(Field field)
 	{
 		if (storageStrategy.entity(field))
@@ -199,6 +300,57 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		{
 			return keyFieldTranslator;
 		}
+		else
+		{
+			PropertyTranslator translator = valueTranslators.get(field);
+			if (translator == null)
+			{
+				translator = createValueTranslator(field);
+				valueTranslators.put(field, translator);
+			}
+			return translator;
+		}
+	}
+
+	private PropertyTranslator createValueTranslator(Field field)
+	{
+		PropertyTranslator translator = valueTranslator(field);
+		boolean compress = encodingStrategy != null && encodingStrategy.compress(field);
+		if (compress || canBeLarge(field.getType()))
+		{
+			// values stored compressed can be read even if the field is no longer compressed
+			translator = new CompressingTranslator(translator, CompressingTranslator.DEFAULT_THRESHOLD, compress);
+		}
+		return translator;
+	}
+
+	/**
+	 * @return false if values of the type are never stored as a Blob or Text
+	 */
+	private static boolean canBeLarge(Class<?> type)
+	{
+		return !(type.isPrimitive() || type.isEnum() ||
+				type == Long.class || type == Integer.class || type == Short.class || type == Byte.class ||
+				type == Double.class || type == Float.class || type == Boolean.class || type == Character.class ||
+				type == Date.class || type == Key.class);
+	}
+
+	private boolean isPacked(Field field)
+	{
+		return encodingStrategy != null && encodingStrategy.packed(field);
+	}
+
+	private PropertyTranslator valueTranslator(Field field)
+	{
+		if (isPacked(field))
+		{
+			// the declared type decides how enums are packed
+			return new PackedTranslator(field.getGenericType());
+		}
+		else if (encodingStrategy != null && encodingStrategy.compact(field))
+		{
+			return compactMapTranslator;
+		}
 		else if (storageStrategy.embed(field))
 		{
 			if (storageStrategy.polymorphic(field))
@@ -241,16 +393,36 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		return result;
 	}
 
+	/**
+	 * @return true if every translator in the chain is one of the defaults
+	 *         which only look at the type of value
+	 */
+	private static boolean isTypeOnly(ChainedTranslator chain)
+	{
+		Iterator<PropertyTranslator> translators = chain.translators();
+		while (translators.hasNext())
+		{
+			Class<?> type = translators.next().getClass();
+			if (type != NativeDirectTranslator.class &&
+					type != CoreStringTypesTranslator.class &&
+					type != EnumTranslator.class)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
 	// TODO put this in a class meta data object
-	private static final Map<Class<?>, Field> keyFields = new ConcurrentHashMap<Class<?>, Field>();
+	private static final Map<Class<?>, FieldAccessor> keyFields = new ConcurrentHashMap<Class<?>, FieldAccessor>();
 	
 	// null values are not permitted in a concurrent hash map so need a "missing" value
-	private static final Field NO_KEY_FIELD;
+	private static final FieldAccessor NO_KEY_FIELD;
 	static
 	{
 		try
 		{
-			NO_KEY_FIELD = StrategyObjectDatastore.class.getDeclaredField("NO_KEY_FIELD");
+			NO_KEY_FIELD = FieldAccessor.create(StrategyObjectDatastore.class.getDeclaredField("NO_KEY_FIELD"));
 		}
 		catch (Exception e)
 		{
@@ -290,6 +462,11 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 			// we will get the key after put
 			return key;
 		}
+		else if (queuePut(entity))
+		{
+			// the entity will be put when the unit of work is flushed
+			return entity.getKey();
+		}
 		else
 		{
 			// actually put the entity in the datastore
@@ -297,10 +474,187 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		}
 	}
 
+	/**
+	 * Puts the entities in batches that are each sent by {@link #entitiesToKeysLater(List)}
+	 */
 	protected List<Key> entitiesToKeys(Iterable<Entity> entities)
 	{
 		// TODO do some of the same stuff as above
-		return servicePut(entities);
+		PutPipeline<Entity> pipeline = createPutPipeline();
+		for (Entity entity : entities)
+		{
+			if (!queuePut(entity))
+			{
+				pipeline.add(entity, entity);
+			}
+		}
+		pipeline.flush();
+
+		// keys of the put entities are completed in place
+		List<Key> keys = new ArrayList<Key>();
+		for (Entity entity : entities)
+		{
+			keys.add(entity.getKey());
+		}
+		return keys;
+	}
+
+	/**
+	 * Every batch of entities stored by this datastore is put by this method
+	 * so it is the one to override to intercept puts.
+	 * 
+	 * @return The keys of the entities once the batch has been put
+	 */
+	protected Future<List<Key>> entitiesToKeysLater(List<Entity> entities)
+	{
+		if (asynchronousPuts)
+		{
+			return AsyncDatastoreHelper.put(getTransaction(), entities);
+		}
+		else
+		{
+			return PutPipeline.done(servicePut(entities));
+		}
+	}
+
+	/**
+	 * @return true if the entity was queued to be put when the unit of work is flushed
+	 */
+	private boolean queuePut(Entity entity)
+	{
+		// entities need a key before they are queued
+		if (!isQueueing() || !entity.getKey().isComplete())
+		{
+			return false;
+		}
+
+		// the last write of a key replaces any earlier write or delete
+		pendingDeletes.remove(entity.getKey());
+		// the queued entity must not change with collections still held by the caller
+		pendingPuts.put(entity.getKey(), Entities.snapshot(entity));
+		return true;
+	}
+
+	/**
+	 * Writes in a transaction are never queued so they are committed with it
+	 */
+	private boolean isQueueing()
+	{
+		return pendingPuts != null && (getTransaction() == null || !getTransaction().isActive());
+	}
+
+	@Override
+	public final void setUnitOfWork(boolean enabled)
+	{
+		if (enabled)
+		{
+			if (pendingPuts == null)
+			{
+				pendingPuts = new LinkedHashMap<Key, Entity>();
+				pendingDeletes = new LinkedHashSet<Key>();
+			}
+		}
+		else if (pendingPuts != null)
+		{
+			flush();
+			pendingPuts = null;
+			pendingDeletes = null;
+		}
+	}
+
+	@Override
+	public final void flush()
+	{
+		if (pendingPuts == null || pendingPuts.isEmpty() && pendingDeletes.isEmpty())
+		{
+			return;
+		}
+
+		// a key is never both put and deleted so all batches can be sent at once
+		PutPipeline<Entity> puts = new PutPipeline<Entity>(this,
+				maximumBatchEntities, maximumBatchBytes, Integer.MAX_VALUE);
+		for (Entity entity : pendingPuts.values())
+		{
+			puts.add(entity, entity);
+		}
+		puts.send();
+
+		List<Key> keys = new ArrayList<Key>(pendingDeletes);
+		List<Future<Void>> deletes = new ArrayList<Future<Void>>();
+		for (int from = 0; from < keys.size(); from += maximumBatchEntities)
+		{
+			List<Key> batch = keys.subList(from, Math.min(from + maximumBatchEntities, keys.size()));
+			if (asynchronousPuts)
+			{
+				deletes.add(AsyncDatastoreHelper.delete(getTransaction(), batch));
+			}
+			else
+			{
+				serviceDelete(batch);
+			}
+		}
+
+		puts.flush();
+		for (Future<Void> delete : deletes)
+		{
+			PutPipeline.get(delete);
+		}
+
+		// only forget the queue once every batch has succeeded
+		pendingPuts.clear();
+		pendingDeletes.clear();
+	}
+
+	<T> PutPipeline<T> createPutPipeline()
+	{
+		return new PutPipeline<T>(this, maximumBatchEntities, maximumBatchBytes, maximumPutsInFlight);
+	}
+
+	/**
+	 * A pipeline that never waits for earlier batches so the caller is not blocked
+	 */
+	<T> PutPipeline<T> createLaterPutPipeline()
+	{
+		return new PutPipeline<T>(this, maximumBatchEntities, maximumBatchBytes, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Split puts into batches of at most this many entities and roughly this many bytes
+	 */
+	public final void setMaximumBatchSize(int entities, int bytes)
+	{
+		if (entities < 1 || bytes < 1)
+		{
+			throw new IllegalArgumentException("Batch size must be positive");
+		}
+		this.maximumBatchEntities = entities;
+		this.maximumBatchBytes = bytes;
+	}
+
+	/**
+	 * The number of batch puts sent before waiting for the oldest to complete
+	 */
+	public final void setMaximumPutsInFlight(int puts)
+	{
+		if (puts < 1)
+		{
+			throw new IllegalArgumentException("At least one put must be in flight");
+		}
+		this.maximumPutsInFlight = puts;
+	}
+
+	/**
+	 * Send batch puts and deletes with low level async calls so more entities
+	 * can be encoded while they are in flight, which is the default. These
+	 * calls do not go through the configured
+	 * {@link com.google.appengine.api.datastore.DatastoreService} so turn them
+	 * off to use its deadline or a service returned by newDatastoreService.
+	 * Batches are then put one at a time and stores that return a future only
+	 * complete once every batch is put.
+	 */
+	public final void setAsynchronousPuts(boolean asynchronous)
+	{
+		this.asynchronousPuts = asynchronous;
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -315,16 +669,9 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 
 			Type type = fieldStrategy.kindToType(entity.getKind());
 
-			Set<Property> properties = PropertySets.create(entity.getProperties(), indexed);
-			
-			// filter out unwanted properties at the lowest level
-			if (filter != null)
-			{
-				properties = Sets.filter(properties, filter);
-			}
-
-			// order the properties for efficient separation by field
-			properties = new TreeSet<Property>(properties);
+			// filter out unwanted properties at the lowest level and order
+			// them once for efficient separation by field
+			Set<Property> properties = PropertySets.createSorted(entity.getProperties(), indexed, filter);
 
 			instance = (T) decoder(entity).propertiesToTypesafe(properties, Path.EMPTY_PATH, type);
 			if (instance == null)
@@ -332,6 +679,11 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 				throw new IllegalStateException("Could not translate entity " + entity);
 			}
 
+			if (dirtyChecking && filter == null)
+			{
+				keyCache.snapshot(instance, entity, Entities.fingerprint(entity));
+			}
+
 			// pop the context
 			decodeKey = existingDecodeKey;
 		}
@@ -468,6 +820,7 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 	// TODO make almost every method private once commands contain no logic
 	final Entity createEntity()
 	{
+		allocateId(encodeKeySpec);
 		if (encodeKeySpec.isComplete())
 		{
 			// we have a complete key with id specified 
@@ -493,6 +846,26 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		keyCache.evictInstance(reference);
 	}
 
+	private void allocateId(KeySpecification specification)
+	{
+		// a reserved id completes the key before the entity is put
+		if (idPool != null && !associating && !specification.isComplete())
+		{
+			ObjectReference<Key> parentKeyReference = specification.getParentKeyReference();
+			Key parentKey = parentKeyReference == null ? null : parentKeyReference.get();
+			specification.setId(idPool.next(parentKey, specification.getKind()));
+		}
+	}
+
+	/**
+	 * Give new instances without an id one from the pool so they can be
+	 * referenced and put in batches without first being put on their own
+	 */
+	public final void setIdPool(IdPool idPool)
+	{
+		this.idPool = idPool;
+	}
+
 	@Override
 	public final void disassociateAll()
 	{
@@ -614,6 +987,11 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 	 */
 	Key instanceToKey(Object instance, Key parentKey)
 	{
+		if (graph != null)
+		{
+			return graphInstanceToKey(instance, parentKey);
+		}
+
 		Key key = keyCache.getKey(instance);
 		if (key == null)
 		{
@@ -621,10 +999,32 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		}
 		return key;
 	}
-	
-	<T> Map<T, Key> instancesToKeys(Collection<T> instances, Object parent)
+
+	<T> Map<T, Key> instancesToKeys(Collection<T> instances, Key parentKey)
 	{
 		Map<T, Key> result = new HashMap<T, Key>(instances.size());
+		if (graph != null)
+		{
+			// reach every instance before giving up so they are all put in the next level
+			boolean unresolved = false;
+			for (T instance : instances)
+			{
+				try
+				{
+					result.put(instance, graphInstanceToKey(instance, parentKey));
+				}
+				catch (UnresolvedKeyException e)
+				{
+					unresolved = true;
+				}
+			}
+			if (unresolved)
+			{
+				throw UNRESOLVED;
+			}
+			return result;
+		}
+
 		List<T> missed = new ArrayList<T>(instances.size());
 		for (T instance : instances)
 		{
@@ -638,12 +1038,22 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 				result.put(instance, key);
 			}
 		}
-		
+
 		if (!missed.isEmpty())
 		{
-			result.putAll(storeAll(missed, parent));
+			if (associating || batched != null)
+			{
+				for (T instance : missed)
+				{
+					result.put(instance, internalStore(instance, parentKey));
+				}
+			}
+			else
+			{
+				result.putAll(storeGraph(missed, parentKey));
+			}
 		}
-		
+
 		return result;
 	}
 
@@ -665,27 +1075,227 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		{
 			throw new IllegalStateException("Cannot store same instance twice: " + instance);
 		}
-		Entity entity = instanceToEntity(instance, parentKey);
-		Key key = entityToKey(entity);
-		
-		// replace the temp key ObjRef with the full key for this instance 
-		keyCache.cache(key, instance);
-		
-		setInstanceId(instance, key);
-		
-		return key;
+
+		if (associating || batched != null)
+		{
+			// nothing is put so referenced instances need no ordering
+			Entity entity = instanceToEntity(instance, parentKey);
+			Key key = entityToKey(entity);
+
+			// replace the temp key ObjRef with the full key for this instance
+			keyCache.cache(key, instance);
+
+			setInstanceId(instance, key);
+
+			return key;
+		}
+		else
+		{
+			return storeGraph(Collections.singleton(instance), parentKey).get(instance);
+		}
 	}
 
-	@SuppressWarnings("deprecation")
-	private void setInstanceId(Object instance, Key key)
+	/**
+	 * Stores the instances and every new instance they reference using
+	 * batch puts for each level of dependency. An entity can only be built
+	 * once the keys it references are known so only instances without a
+	 * complete key need to be put before the instances that reference them.
+	 * Instances are encoded while earlier batches are being put.
+	 */
+	private <T> Map<T, Key> storeGraph(Collection<? extends T> instances, Key parentKey)
 	{
-		// TODO share fields with ObjectFieldTranslator
-		Field idField = null;
-		if (keyFields.containsKey(instance.getClass()))
+		for (T instance : instances)
+		{
+			if (keyCache.getKeyReference(instance) != null)
+			{
+				throw new IllegalStateException("Cannot store same instance twice: " + instance);
+			}
+		}
+
+		graph = new IdentityHashMap<Object, GraphNode>();
+		unbuilt = new ArrayList<GraphNode>();
+		PutPipeline<GraphNode> pipeline = new PutPipeline<GraphNode>(this,
+				maximumBatchEntities, maximumBatchBytes, maximumPutsInFlight)
+		{
+			@Override
+			protected void stored(GraphNode node, Key key)
+			{
+				nodeStored(node, key);
+			}
+		};
+		try
+		{
+			Iterator<? extends T> roots = instances.iterator();
+			do
+			{
+				List<GraphNode> waiting = new ArrayList<GraphNode>();
+				boolean built = false;
+
+				// building an entity can reach new instances which are added to the end
+				int index = 0;
+				while (true)
+				{
+					if (index == unbuilt.size())
+					{
+						if (!roots.hasNext())
+						{
+							break;
+						}
+
+						// only encode the next instance once the last has been sent
+						T instance = roots.next();
+						if (!graph.containsKey(instance) && keyCache.getKeyReference(instance) == null)
+						{
+							encodeNode(instance, parentKey);
+						}
+						continue;
+					}
+
+					GraphNode node = unbuilt.get(index++);
+					try
+					{
+						Entity entity = buildNode(node);
+						if (dirtyChecking)
+						{
+							node.entity = entity;
+						}
+
+						if (queuePut(entity))
+						{
+							nodeStored(node, entity.getKey());
+						}
+						else
+						{
+							pipeline.add(node, entity);
+						}
+						built = true;
+					}
+					catch (UnresolvedKeyException e)
+					{
+						waiting.add(node);
+					}
+				}
+
+				// the next level needs the keys of this one
+				pipeline.flush();
+
+				if (!built && !waiting.isEmpty())
+				{
+					throw new IllegalStateException("Instances without keys reference each other: " + graph.keySet());
+				}
+				unbuilt = waiting;
+			}
+			while (!unbuilt.isEmpty());
+		}
+		finally
+		{
+			// batches already sent may still be put so find out before evicting
+			pipeline.drain();
+
+			// instances that were not put can be stored again
+			for (Object instance : graph.keySet())
+			{
+				keyCache.evictKeyReference(instance);
+			}
+			graph = null;
+			unbuilt = null;
+		}
+
+		LinkedHashMap<T, Key> result = Maps.newLinkedHashMap();
+		for (T instance : instances)
+		{
+			result.put(instance, keyCache.getKey(instance));
+		}
+		return result;
+	}
+
+	private void nodeStored(GraphNode node, Key key)
+	{
+		// replace the temp key ObjRef with the full key for this instance
+		keyCache.cache(key, node.instance);
+		setInstanceId(node.instance, key);
+		graph.remove(node.instance);
+
+		if (node.entity != null)
+		{
+			keyCache.snapshot(node.instance, node.entity, Entities.fingerprint(node.entity));
+		}
+	}
+
+	private GraphNode encodeNode(Object instance, Key parentKey)
+	{
+		// push a new encode context
+		KeySpecification existingEncodeKeySpec = encodeKeySpec;
+		encodeKeySpec = createKeySpecification(instance, parentKey);
+		try
+		{
+			GraphNode node = new GraphNode(instance, encodeKeySpec, encodeProperties(instance));
+			graph.put(instance, node);
+			unbuilt.add(node);
+			return node;
+		}
+		catch (RuntimeException e)
+		{
+			// the instance is not in the graph yet so would keep its key reference
+			keyCache.evictKeyReference(instance);
+			throw e;
+		}
+		finally
+		{
+			// pop the encode context
+			encodeKeySpec = existingEncodeKeySpec;
+		}
+	}
+
+	private Entity buildNode(GraphNode node)
+	{
+		// references are resolved in the context of the referencing instance
+		KeySpecification existingEncodeKeySpec = encodeKeySpec;
+		encodeKeySpec = node.specification;
+		try
+		{
+			Entity entity = createEntity();
+			transferProperties(entity, node.properties);
+			return entity;
+		}
+		finally
+		{
+			encodeKeySpec = existingEncodeKeySpec;
+		}
+	}
+
+	private Key graphInstanceToKey(Object instance, Key parentKey)
+	{
+		GraphNode node = graph.get(instance);
+		if (node == null)
+		{
+			Key key = keyCache.getKey(instance);
+			if (key != null)
+			{
+				return key;
+			}
+			node = encodeNode(instance, parentKey);
+		}
+
+		allocateId(node.specification);
+		if (node.specification.isComplete())
 		{
-			idField = keyFields.get(instance.getClass());
+			// the key is known before the entity is put
+			return node.specification.toKey();
 		}
 		else
+		{
+			// the datastore must allocate an id before this key is known
+			throw UNRESOLVED;
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private void setInstanceId(Object instance, Key key)
+	{
+		// TODO share fields with ObjectFieldTranslator
+		FieldAccessor idField = keyFields.get(instance.getClass());
+		if (idField == null)
 		{
 			List<Field> fields = Reflection.getAccessibleFields(instance.getClass());
 			for (Field field : fields)
@@ -693,7 +1303,7 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 				if (field.isAnnotationPresent(com.vercer.engine.persist.annotation.Key.class) ||
 					field.isAnnotationPresent(Id.class))
 				{
-					idField = field;
+					idField = FieldAccessor.create(field);
 					break;
 				}
 			}
@@ -711,10 +1321,20 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 			if (idField != NO_KEY_FIELD)
 			{
 				// see if its current value is null or 0
+				Class<?> type = idField.getField().getType();
+				if (type == Long.TYPE)
+				{
+					// avoid boxing for the common primitive id
+					if (idField.getLong(instance) == 0 && key.getId() != 0)
+					{
+						idField.setLong(instance, key.getId());
+					}
+					return;
+				}
+				
 				Object current = idField.get(instance);
 				if (current == null || current instanceof Number && ((Number) current).longValue() == 0)
 				{
-					Class<?> type = idField.getType();
 					Object idOrName = key.getId();
 					
 					// the key name could have been set explicitly when storing 
@@ -744,27 +1364,14 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 	@Override
 	public final <T> Map<T, Key> storeAll(Collection<? extends T> instances, Object parent)
 	{
-		// encode the instances to entities
-		final Map<T, Entity> entities = instancesToEntities(instances, parent, false);
-		
-		// actually put them in the datastore and get their keys
-		final List<Key> keys = entitiesToKeys(entities.values());
-		
-		LinkedHashMap<T, Key> result = Maps.newLinkedHashMap();
-		Iterator<T> instanceItr = entities.keySet().iterator();
-		Iterator<Key> keyItr = keys.iterator();
-		while (instanceItr.hasNext())
+		Key parentKey = null;
+		if (parent != null)
 		{
-			// iterate instances and keys in parallel
-			T instance = instanceItr.next();
-			Key key = keyItr.next();
-			
-			// replace the temp key ObjRef with the full key for this instance 
-			keyCache.cache(key, instance);
-			
-			result.put(instance, key);
+			parentKey = keyCache.getKey(parent);
 		}
-		return result;
+
+		// put the instances and all they reference in as few batches as possible
+		return storeGraph(instances, parentKey);
 	}
 
 	@Override
@@ -898,21 +1505,11 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 
 	final Entity instanceToEntity(Object instance, Key parentKey)
 	{
-		String kind = fieldStrategy.typeToKind(instance.getClass());
-		
 		// push a new encode context
 		KeySpecification existingEncodeKeySpec = encodeKeySpec;
-		encodeKeySpec = new KeySpecification(kind, parentKey, null);
+		encodeKeySpec = createKeySpecification(instance, parentKey);
 
-		keyCache.cacheKeyReferenceForInstance(instance, encodeKeySpec.toObjectReference());
-			
-		// translate fields to properties - sets parent and id on key
-		PropertyTranslator encoder = encoder(instance);
-		Set<Property> properties = encoder.typesafeToProperties(instance, Path.EMPTY_PATH, indexed);
-		if (properties == null)
-		{
-			throw new IllegalStateException("Could not translate instance: " + instance);
-		}
+		PropertyBuffer properties = encodeProperties(instance);
 
 		// the key will now be set with id and parent
 		Entity entity = createEntity();
@@ -930,6 +1527,27 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		return entity;
 	}
 
+	private KeySpecification createKeySpecification(Object instance, Key parentKey)
+	{
+		String kind = fieldStrategy.typeToKind(instance.getClass());
+		KeySpecification specification = new KeySpecification(kind, parentKey, null);
+
+		// cache the incomplete key details now in case a child references back to us
+		keyCache.cacheKeyReferenceForInstance(instance, specification.toObjectReference());
+		return specification;
+	}
+
+	private PropertyBuffer encodeProperties(Object instance)
+	{
+		// translate fields to properties - sets parent and id on key
+		PropertyBuffer properties = new PropertyBuffer();
+		if (!PropertySinks.encode(encoder(instance), instance, Path.EMPTY_PATH, indexed, properties))
+		{
+			throw new IllegalStateException("Could not translate instance: " + instance);
+		}
+		return properties;
+	}
+
 	@SuppressWarnings("unchecked")
 	final <T> Map<T, Entity> instancesToEntities(Collection<? extends T> instances, Object parent, boolean batch)
 	{
@@ -961,21 +1579,21 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		return entities;
 	}
 	
-	private void transferProperties(Entity entity, Collection<Property> properties)
+	private void transferProperties(Entity entity, PropertyBuffer properties)
 	{
-		for (Property property : properties)
+		for (int i = 0; i < properties.size(); i++)
 		{
 			// dereference object references
-			Object value = property.getValue();
+			Object value = properties.getValue(i);
 			value = dereferencePropertyValue(value);
 
-			if (property.isIndexed())
+			if (properties.isIndexed(i))
 			{
-				entity.setProperty(property.getPath().toString(), value);
+				entity.setProperty(properties.getPath(i).toString(), value);
 			}
 			else
 			{
-				entity.setUnindexedProperty(property.getPath().toString(), value);
+				entity.setUnindexedProperty(properties.getPath(i).toString(), value);
 			}
 		}
 	}
@@ -1076,6 +1694,31 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 	}
 
 	final void internalUpdate(Object instance, Key key)
+	{
+		Entity entity = updateToEntity(instance, key);
+
+		long fingerprint = 0;
+		if (dirtyChecking && batched == null)
+		{
+			fingerprint = Entities.fingerprint(entity);
+			if (keyCache.isUnchanged(instance, entity, fingerprint))
+			{
+				// nothing has changed since the instance was read or written
+				return;
+			}
+		}
+
+		Key putKey = entityToKey(entity);
+
+		assert putKey.equals(key);
+
+		if (dirtyChecking && batched == null)
+		{
+			keyCache.snapshot(instance, entity, fingerprint);
+		}
+	}
+
+	private Entity updateToEntity(Object instance, Key key)
 	{
 		Entity entity = new Entity(key);
 		
@@ -1083,12 +1726,7 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		assert encodeKeySpec == null;
 		encodeKeySpec = new KeySpecification();
 
-		// translate fields to properties - sets parent and id on key
-		Set<Property> properties = encoder(instance).typesafeToProperties(instance, Path.EMPTY_PATH, indexed);
-		if (properties == null)
-		{
-			throw new IllegalStateException("Could not translate instance: " + instance);
-		}
+		PropertyBuffer properties = encodeProperties(instance);
 
 		transferProperties(entity, properties);
 		
@@ -1100,10 +1738,58 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		
 		// pop the encode context
 		encodeKeySpec = null;
-		
-		Key putKey = entityToKey(entity);
-		
-		assert putKey.equals(key);
+
+		return entity;
+	}
+
+	@Override
+	public final void updateAll(Collection<?> instances)
+	{
+		List<Object> changed = new ArrayList<Object>(instances.size());
+		List<Entity> entities = new ArrayList<Entity>(instances.size());
+		long[] fingerprints = new long[instances.size()];
+		for (Object instance : instances)
+		{
+			Key key = keyCache.getKey(instance);
+			if (key == null)
+			{
+				throw new IllegalArgumentException("Can only update instances loaded from this session");
+			}
+
+			Entity entity = updateToEntity(instance, key);
+			if (dirtyChecking)
+			{
+				long fingerprint = Entities.fingerprint(entity);
+				if (keyCache.isUnchanged(instance, entity, fingerprint))
+				{
+					continue;
+				}
+				fingerprints[changed.size()] = fingerprint;
+			}
+			changed.add(instance);
+			entities.add(entity);
+		}
+
+		// put all the changed instances together
+		entitiesToKeys(entities);
+
+		if (dirtyChecking)
+		{
+			for (int i = 0; i < changed.size(); i++)
+			{
+				keyCache.snapshot(changed.get(i), entities.get(i), fingerprints[i]);
+			}
+		}
+	}
+
+	/**
+	 * Keep a copy of each entity read or written so that updates which would
+	 * not change the stored properties are skipped. A fingerprint of the
+	 * properties is compared first and the values only when it matches.
+	 */
+	public final void setDirtyChecking(boolean dirtyChecking)
+	{
+		this.dirtyChecking = dirtyChecking;
 	}
 
 	public final void deleteAll(Type type)
@@ -1122,7 +1808,20 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 
 	protected void deleteKeys(Collection<Key> keys)
 	{
-		serviceDelete(keys);
+		if (!isQueueing())
+		{
+			serviceDelete(keys);
+		}
+		else
+		{
+			// the last delete of a key replaces any earlier write
+			for (Key key : keys)
+			{
+				pendingPuts.remove(key);
+				pendingDeletes.add(key);
+			}
+		}
+
 		for (Key key : keys)
 		{
 			if (keyCache.containsKey(key))
@@ -1154,6 +1853,11 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		@Override
 		protected Type typeFromField(Field field)
 		{
+			// packed values are stored from the declared type without converting to a list
+			if (isPacked(field))
+			{
+				return field.getGenericType();
+			}
 			return StrategyObjectDatastore.this.fieldStrategy.typeOf(field);
 		}
 	
@@ -1163,6 +1867,19 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 			return StrategyObjectDatastore.this.fieldStrategy.name(field);
 		}
 	
+		@Override
+		protected PropertyTranslator translator(Field field)
+		{
+			if (valueDependentTranslators)
+			{
+				// call the overridden encoder and decoder for every value
+				return null;
+			}
+
+			// the translator only depends on the field so can be held in the mapping
+			return StrategyObjectDatastore.this.translator(field);
+		}
+
 		@Override
 		protected PropertyTranslator encoder(Field field, Object instance)
 		{
@@ -1221,6 +1938,41 @@ public class StrategyObjectDatastore extends BaseObjectDatastore
 		}
 	}
 
+	/**
+	 * An encoded instance waiting for the keys it references
+	 */
+	private static final class GraphNode
+	{
+		private final Object instance;
+		private final KeySpecification specification;
+		private final PropertyBuffer properties;
+		private Entity entity;
+
+		private GraphNode(Object instance, KeySpecification specification, PropertyBuffer properties)
+		{
+			this.instance = instance;
+			this.specification = specification;
+			this.properties = properties;
+		}
+	}
+
+	/**
+	 * Abandons building an entity until a later level when the key is known
+	 */
+	private static final class UnresolvedKeyException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Throwable fillInStackTrace()
+		{
+			// only used to unwind so a shared instance needs no trace
+			return this;
+		}
+	}
+
+	private static final UnresolvedKeyException UNRESOLVED = new UnresolvedKeyException();
+
 	private static final Function<Entity, Key> entityToKeyFunction = new Function<Entity, Key>()
 	{
 		public Key apply(Entity arg0)
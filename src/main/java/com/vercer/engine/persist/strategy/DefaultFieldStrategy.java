@@ -5,12 +5,17 @@ import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.vercer.engine.persist.conversion.PrimitiveTypeConverter;
+import com.vercer.engine.persist.util.generic.CachedTypeReflector;
 import com.vercer.engine.persist.util.generic.GenericTypeReflector;
 
 /**
@@ -50,15 +55,61 @@ public class DefaultFieldStrategy implements FieldStrategy
 		{
 			return "(Replaced " + type + " with List<" + replaced + ">)";
 		}
+
+		// equal to any other list type with the same component type
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+			{
+				return true;
+			}
+			if (!(obj instanceof ParameterizedType))
+			{
+				return false;
+			}
+			ParameterizedType other = (ParameterizedType) obj;
+			return ArrayList.class.equals(other.getRawType()) &&
+				other.getOwnerType() == null &&
+				Arrays.equals(getActualTypeArguments(), other.getActualTypeArguments());
+		}
+
+		@Override
+		public int hashCode()
+		{
+			// same as the JDK and generic type implementations
+			return ArrayList.class.hashCode() ^ Arrays.hashCode(getActualTypeArguments());
+		}
 	}
 
 	private final int defaultVersion;
 
+	// kinds and types that have been converted in both directions which
+	// depend on the configuration of this instance so are not shared
+	private final ConcurrentMap<Type, String> typeToKind = new ConcurrentHashMap<Type, String>();
+	private final ConcurrentMap<String, Type> kindToType = new ConcurrentHashMap<String, Type>();
+
+	// field types are calculated once and shared between equal fields
+	private final Map<Field, Type> fieldTypes = new ConcurrentHashMap<Field, Type>();
+
 	public DefaultFieldStrategy(int defaultVersion)
 	{
 		this.defaultVersion = defaultVersion;
 	}
 
+	/**
+	 * Registers the kinds of entity types up front so that kinds which cannot
+	 * be decoded back into a class name, such as those set by an annotation,
+	 * can be loaded before any instance of the type has been stored.
+	 */
+	public void register(Class<?>... types)
+	{
+		for (Class<?> type : types)
+		{
+			typeToKind(type);
+		}
+	}
+
 	/**
 	 * Decode a type name - possibly abbreviated - into a type.
 	 * 
@@ -77,9 +128,20 @@ public class DefaultFieldStrategy implements FieldStrategy
 	}
 
 	private final static Pattern pattern = Pattern.compile("v\\d_");
-	public final Type kindToType(String name)
+	public final Type kindToType(String kind)
+	{
+		Type type = kindToType.get(kind);
+		if (type == null)
+		{
+			type = parseKind(kind);
+			kindToType.put(kind, type);
+		}
+		return type;
+	}
+
+	private Type parseKind(String name)
 	{
-        Matcher matcher = pattern.matcher(name);
+		Matcher matcher = pattern.matcher(name);
 		if (matcher.lookingAt())
 		{
 			name = name.substring(matcher.end());
@@ -107,6 +169,20 @@ public class DefaultFieldStrategy implements FieldStrategy
 	}
 
 	public final String typeToKind(Type type)
+	{
+		String kind = typeToKind.get(type);
+		if (kind == null)
+		{
+			kind = createKind(type);
+			typeToKind.put(type, kind);
+
+			// the kind may not be parsable back into this type
+			kindToType.putIfAbsent(kind, GenericTypeReflector.erase(type));
+		}
+		return kind;
+	}
+
+	private String createKind(Type type)
 	{
 		String kind = typeToName(type);
 		
@@ -151,7 +227,13 @@ public class DefaultFieldStrategy implements FieldStrategy
 	 */
 	public Type typeOf(Field field)
 	{
-		return replace(field.getGenericType());
+		Type type = fieldTypes.get(field);
+		if (type == null)
+		{
+			type = CachedTypeReflector.intern(replace(field.getGenericType()));
+			fieldTypes.put(field, type);
+		}
+		return type;
 	}
 
 	protected Type replace(final Type type)
@@ -194,7 +276,7 @@ public class DefaultFieldStrategy implements FieldStrategy
 		}
 
 		// replace the collection type with a list type
-		return new ReplacedListType(type, replaced);
+		return CachedTypeReflector.intern(new ReplacedListType(type, replaced));
 	}
 
 
@@ -0,0 +1,34 @@
+package com.vercer.engine.persist.strategy;
+
+import java.lang.reflect.Field;
+
+
+/**
+ * Optional choices of how a stored field value is encoded. A storage
+ * strategy that does not implement this stores every field the default way.
+ */
+public interface EncodingStrategy extends StorageStrategy
+{
+	/**
+	 * Should the values of a primitive array or collection of numbers be
+	 * packed into a single unindexed Blob
+	 * @param field
+	 * @return true to store the field as a packed Blob
+	 */
+	boolean packed(Field field);
+
+	/**
+	 * Should a map be stored as a list of keys and a list of values rather
+	 * than a property for every key
+	 * @param field
+	 * @return true to store the map as two list properties
+	 */
+	boolean compact(Field field);
+
+	/**
+	 * Should large Blob and Text values be compressed
+	 * @param field
+	 * @return true to deflate values that are over the threshold
+	 */
+	boolean compress(Field field);
+}
@@ -0,0 +1,72 @@
+package com.vercer.engine.persist.strategy;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registered numeric ids for the classes of polymorphic values which are
+ * stored instead of the full class name. Ids are written to the datastore so
+ * they must never be changed or reused once values have been stored.
+ * Unregistered classes are still stored by name.
+ */
+public class TypeDictionary
+{
+	// ids are small so the table is indexed directly
+	private volatile Class<?>[] types = new Class<?>[0];
+	private final ConcurrentMap<Class<?>, Long> ids = new ConcurrentHashMap<Class<?>, Long>();
+
+	/**
+	 * @param id A small non-negative number that will identify the type
+	 * @return This dictionary for chaining
+	 */
+	public synchronized TypeDictionary register(int id, Class<?> type)
+	{
+		if (id < 0)
+		{
+			throw new IllegalArgumentException("Type id cannot be negative " + id);
+		}
+
+		Long existing = ids.get(type);
+		if (existing != null && existing != id)
+		{
+			throw new IllegalArgumentException("Type " + type + " already has id " + existing);
+		}
+		if (id < types.length && types[id] != null && types[id] != type)
+		{
+			throw new IllegalArgumentException("Id " + id + " already used by " + types[id]);
+		}
+
+		Class<?>[] copy = Arrays.copyOf(types, Math.max(types.length, id + 1));
+		copy[id] = type;
+		types = copy;
+		ids.put(type, (long) id);
+		return this;
+	}
+
+	/**
+	 * @return The id of the registered type or null if it has none
+	 */
+	public Long typeToId(Class<?> type)
+	{
+		return ids.get(type);
+	}
+
+	/**
+	 * @return The registered type with this id or null if none is registered
+	 */
+	public Class<?> idToType(long id)
+	{
+		Class<?>[] types = this.types;
+		if (id < 0 || id >= types.length)
+		{
+			return null;
+		}
+		return types[(int) id];
+	}
+
+	public boolean isEmpty()
+	{
+		return ids.isEmpty();
+	}
+}
@@ -6,15 +6,29 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.vercer.engine.persist.Path;
 import com.vercer.engine.persist.Property;
+import com.vercer.engine.persist.PropertySink;
 import com.vercer.engine.persist.PropertyTranslator;
+import com.vercer.engine.persist.StreamingPropertyTranslator;
+import com.vercer.engine.persist.util.PropertySinks;
 
-public class ChainedTranslator implements PropertyTranslator
+public class ChainedTranslator implements StreamingPropertyTranslator
 {
+	private static final int MAXIMUM_SELECTIONS = 1000;
+
+	// marks a type that no translator handles
+	private static final Integer NONE = -1;
+
 	private final List<PropertyTranslator> translators;
 
+	private volatile boolean selectionCached;
+	private final ConcurrentMap<Class<?>, Integer> encoders = new ConcurrentHashMap<Class<?>, Integer>();
+	private final ConcurrentMap<Type, Integer> decoders = new ConcurrentHashMap<Type, Integer>();
+
 	public ChainedTranslator(PropertyTranslator... translators)
 	{
 		this.translators = new ArrayList<PropertyTranslator>(Arrays.asList(translators));
@@ -28,12 +42,14 @@ public class ChainedTranslator implements PropertyTranslator
 	public PropertyTranslator append(PropertyTranslator translator)
 	{
 		this.translators.add(translator);
+		clearSelections();
 		return this;
 	}
 
 	public PropertyTranslator prepend(PropertyTranslator translator)
 	{
 		this.translators.add(0, translator);
+		clearSelections();
 		return this;
 	}
 
@@ -42,29 +58,137 @@ public class ChainedTranslator implements PropertyTranslator
 		return translators.iterator();
 	}
 
+	/**
+	 * Remember which translator handles each runtime class when encoding and
+	 * each declared type when decoding so later values skip the others. Only
+	 * set this when every translator in the chain decides by type and not by
+	 * value. A remembered translator that returns null is followed by trying
+	 * the whole chain again.
+	 */
+	public void setSelectionCached(boolean selectionCached)
+	{
+		this.selectionCached = selectionCached;
+		clearSelections();
+	}
+
+	private void clearSelections()
+	{
+		encoders.clear();
+		decoders.clear();
+	}
+
+	private static <K> void remember(ConcurrentMap<K, Integer> selections, K key, int index)
+	{
+		// stop unusual types from growing the cache without limit
+		if (selections.size() < MAXIMUM_SELECTIONS)
+		{
+			selections.put(key, index);
+		}
+	}
+
 	public Set<Property> typesafeToProperties(Object object, Path prefix, boolean indexed)
 	{
-		for (PropertyTranslator translator : translators)
+		Integer selected = selectionCached && object != null ? encoders.get(object.getClass()) : null;
+		if (NONE.equals(selected))
 		{
-			Set<Property> result = translator.typesafeToProperties(object, prefix, indexed);
+			return null;
+		}
+		else if (selected != null)
+		{
+			Set<Property> result = translators.get(selected).typesafeToProperties(object, prefix, indexed);
 			if (result != null)
 			{
 				return result;
 			}
 		}
+
+		for (int i = 0; i < translators.size(); i++)
+		{
+			Set<Property> result = translators.get(i).typesafeToProperties(object, prefix, indexed);
+			if (result != null)
+			{
+				if (selectionCached && object != null)
+				{
+					remember(encoders, object.getClass(), i);
+				}
+				return result;
+			}
+		}
+
+		if (selectionCached && object != null)
+		{
+			remember(encoders, object.getClass(), NONE);
+		}
 		return null;
 	}
 
+	public boolean typesafeToSink(Object object, Path prefix, boolean indexed, PropertySink sink)
+	{
+		Integer selected = selectionCached && object != null ? encoders.get(object.getClass()) : null;
+		if (NONE.equals(selected))
+		{
+			return false;
+		}
+		else if (selected != null && PropertySinks.encode(translators.get(selected), object, prefix, indexed, sink))
+		{
+			return true;
+		}
+
+		for (int i = 0; i < translators.size(); i++)
+		{
+			if (PropertySinks.encode(translators.get(i), object, prefix, indexed, sink))
+			{
+				if (selectionCached && object != null)
+				{
+					remember(encoders, object.getClass(), i);
+				}
+				return true;
+			}
+		}
+
+		if (selectionCached && object != null)
+		{
+			remember(encoders, object.getClass(), NONE);
+		}
+		return false;
+	}
+
 	public Object propertiesToTypesafe(Set<Property> properties, Path prefix, Type type)
 	{
-		for (PropertyTranslator translator: translators)
+		// translators may handle missing values for any type
+		boolean cached = selectionCached && !properties.isEmpty();
+
+		Integer selected = cached ? decoders.get(type) : null;
+		if (NONE.equals(selected))
+		{
+			return null;
+		}
+		else if (selected != null)
 		{
-			Object result = translator.propertiesToTypesafe(properties, prefix, type);
+			Object result = translators.get(selected).propertiesToTypesafe(properties, prefix, type);
 			if (result != null)
 			{
 				return result;
 			}
 		}
+
+		for (int i = 0; i < translators.size(); i++)
+		{
+			Object result = translators.get(i).propertiesToTypesafe(properties, prefix, type);
+			if (result != null)
+			{
+				if (cached)
+				{
+					remember(decoders, type, i);
+				}
+				return result;
+			}
+		}
+
+		if (cached)
+		{
+			remember(decoders, type, NONE);
+		}
 		return null;
 	}
-}
\ No newline at end of file
+}
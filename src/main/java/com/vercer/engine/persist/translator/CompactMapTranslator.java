@@ -0,0 +1,153 @@
+package com.vercer.engine.persist.translator;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.vercer.engine.persist.Path;
+import com.vercer.engine.persist.Property;
+import com.vercer.engine.persist.PropertySink;
+import com.vercer.engine.persist.PropertyTranslator;
+import com.vercer.engine.persist.StreamingPropertyTranslator;
+import com.vercer.engine.persist.util.PropertyBuffer;
+import com.vercer.engine.persist.util.PropertySinks;
+import com.vercer.engine.persist.util.SinglePropertySet;
+import com.vercer.engine.persist.util.generic.CachedTypeReflector;
+
+/**
+ * Stores a map as two parallel list properties of keys and values instead of
+ * a property per key. Keys and values must each translate to a single value
+ * otherwise the map is passed to the chained translator which would normally
+ * be a {@link MapTranslator}. Maps stored by the chained translator can still
+ * be read.
+ */
+public class CompactMapTranslator extends DecoratingTranslator implements StreamingPropertyTranslator
+{
+	private static final String KEYS = "keys";
+	private static final String VALUES = "values";
+
+	private final PropertyTranslator itemTranslator;
+
+	/**
+	 * @param chained Handles maps that cannot be stored compactly
+	 * @param itemTranslator Translates each key and value to a single value
+	 */
+	public CompactMapTranslator(PropertyTranslator chained, PropertyTranslator itemTranslator)
+	{
+		super(chained);
+		this.itemTranslator = itemTranslator;
+	}
+
+	public Object propertiesToTypesafe(Set<Property> properties, Path path, Type type)
+	{
+		if (properties.size() != 2 || !CachedTypeReflector.erase(type).isAssignableFrom(HashMap.class))
+		{
+			return chained.propertiesToTypesafe(properties, path, type);
+		}
+
+		Path keysPath = new Path.Builder(path).meta(KEYS).build();
+		Path valuesPath = new Path.Builder(path).meta(VALUES).build();
+		List<?> keys = null;
+		List<?> values = null;
+		for (Property property : properties)
+		{
+			if (property.getPath().equals(keysPath) && property.getValue() instanceof List<?>)
+			{
+				keys = (List<?>) property.getValue();
+			}
+			else if (property.getPath().equals(valuesPath) && property.getValue() instanceof List<?>)
+			{
+				values = (List<?>) property.getValue();
+			}
+		}
+
+		if (keys == null || values == null || keys.size() != values.size())
+		{
+			// not stored compactly
+			return chained.propertiesToTypesafe(properties, path, type);
+		}
+
+		Type[] arguments = CachedTypeReflector.getTypeArguments(type, Map.class);
+		Map<Object, Object> result = new HashMap<Object, Object>((int) (keys.size() / 0.75f) + 1);
+		for (int i = 0; i < keys.size(); i++)
+		{
+			Object key = decode(keys.get(i), path, arguments[0]);
+			Object value = decode(values.get(i), path, arguments[1]);
+			result.put(key, value);
+		}
+		return result;
+	}
+
+	private Object decode(Object stored, Path path, Type type)
+	{
+		if (stored == null)
+		{
+			return null;
+		}
+
+		Object result = itemTranslator.propertiesToTypesafe(new SinglePropertySet(path, stored, false), path, type);
+		if (result == null)
+		{
+			// a general type like Object can hold the stored value
+			return stored;
+		}
+		return result == NULL_VALUE ? null : result;
+	}
+
+	public Set<Property> typesafeToProperties(Object instance, Path path, boolean indexed)
+	{
+		return PropertySinks.toProperties(this, instance, path, indexed);
+	}
+
+	public boolean typesafeToSink(Object instance, Path path, boolean indexed, PropertySink sink)
+	{
+		if (instance instanceof Map<?, ?> == false)
+		{
+			return PropertySinks.encode(chained, instance, path, indexed, sink);
+		}
+
+		Map<?, ?> map = (Map<?, ?>) instance;
+		if (map.isEmpty())
+		{
+			// empty lists are not stored by the datastore
+			return true;
+		}
+
+		List<Object> keys = new ArrayList<Object>(map.size());
+		List<Object> values = new ArrayList<Object>(map.size());
+		PropertyBuffer item = new PropertyBuffer(1);
+		for (Map.Entry<?, ?> entry : map.entrySet())
+		{
+			if (!encode(entry.getKey(), path, item, keys) || !encode(entry.getValue(), path, item, values))
+			{
+				// the map cannot be stored compactly
+				return PropertySinks.encode(chained, instance, path, indexed, sink);
+			}
+		}
+
+		sink.property(new Path.Builder(path).meta(KEYS).build(), keys, indexed);
+		sink.property(new Path.Builder(path).meta(VALUES).build(), values, indexed);
+		return true;
+	}
+
+	private boolean encode(Object value, Path path, PropertyBuffer item, List<Object> column)
+	{
+		if (value == null)
+		{
+			column.add(null);
+			return true;
+		}
+
+		item.truncate(0);
+		if (!PropertySinks.encode(itemTranslator, value, path, false, item) ||
+				item.size() != 1 || !item.getPath(0).equals(path))
+		{
+			return false;
+		}
+		column.add(item.getValue(0));
+		return true;
+	}
+}
@@ -0,0 +1,153 @@
+package com.vercer.engine.persist.translator;
+
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.Set;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Text;
+import com.vercer.engine.persist.Path;
+import com.vercer.engine.persist.Property;
+import com.vercer.engine.persist.PropertySink;
+import com.vercer.engine.persist.PropertyTranslator;
+import com.vercer.engine.persist.StreamingPropertyTranslator;
+import com.vercer.engine.persist.util.PropertyBuffer;
+import com.vercer.engine.persist.util.PropertySinks;
+import com.vercer.engine.persist.util.io.Compression;
+
+/**
+ * Deflates the Blob and Text values written by the chained translator when
+ * they are over a threshold and compressing makes them smaller. Compressed
+ * values are stored as a Blob with a header so values that were stored
+ * uncompressed can still be read. Compressed values are always expanded
+ * when read so fields can stop being compressed without losing data.
+ */
+public class CompressingTranslator extends DecoratingTranslator implements StreamingPropertyTranslator
+{
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final int threshold;
+	private final boolean compress;
+
+	public CompressingTranslator(PropertyTranslator chained)
+	{
+		this(chained, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * @param threshold The minimum number of bytes to try to compress
+	 */
+	public CompressingTranslator(PropertyTranslator chained, int threshold)
+	{
+		this(chained, threshold, true);
+	}
+
+	/**
+	 * @param compress False to only expand values that were stored compressed
+	 */
+	public CompressingTranslator(PropertyTranslator chained, int threshold, boolean compress)
+	{
+		super(chained);
+		this.threshold = threshold;
+		this.compress = compress;
+	}
+
+	public Object propertiesToTypesafe(Set<Property> properties, Path path, Type type)
+	{
+		boolean compressed = false;
+		for (Property property : properties)
+		{
+			if (property.getValue() instanceof Blob && Compression.kind(((Blob) property.getValue()).getBytes()) != 0)
+			{
+				compressed = true;
+				break;
+			}
+		}
+
+		if (compressed)
+		{
+			PropertyBuffer expanded = new PropertyBuffer(properties.size());
+			for (Property property : properties)
+			{
+				Object value = property.getValue();
+				Object decompressed = value instanceof Blob ? decompress((Blob) value) : null;
+				expanded.property(property.getPath(), decompressed == null ? value : decompressed, property.isIndexed());
+			}
+			properties = expanded;
+		}
+
+		return chained.propertiesToTypesafe(properties, path, type);
+	}
+
+	private Object decompress(Blob blob)
+	{
+		byte[] bytes = blob.getBytes();
+		byte kind = Compression.kind(bytes);
+		if (kind == 0)
+		{
+			return null;
+		}
+
+		byte[] original = Compression.decompress(bytes);
+		if (original == null)
+		{
+			// an uncompressed blob that looks like a header
+			return null;
+		}
+		else if (kind == Compression.TEXT)
+		{
+			return new Text(new String(original, UTF8));
+		}
+		else
+		{
+			return new Blob(original);
+		}
+	}
+
+	public Set<Property> typesafeToProperties(Object instance, Path path, boolean indexed)
+	{
+		return PropertySinks.toProperties(this, instance, path, indexed);
+	}
+
+	public boolean typesafeToSink(Object instance, Path path, boolean indexed, final PropertySink sink)
+	{
+		if (!compress)
+		{
+			return PropertySinks.encode(chained, instance, path, indexed, sink);
+		}
+
+		return PropertySinks.encode(chained, instance, path, indexed, new PropertySink()
+		{
+			public void property(Path path, Object value, boolean indexed)
+			{
+				sink.property(path, compress(value), indexed);
+			}
+		});
+	}
+
+	private Object compress(Object value)
+	{
+		byte[] compressed = null;
+		if (value instanceof Blob)
+		{
+			byte[] bytes = ((Blob) value).getBytes();
+			if (bytes.length >= threshold)
+			{
+				compressed = Compression.compress(bytes, Compression.BINARY);
+			}
+		}
+		else if (value instanceof Text)
+		{
+			String text = ((Text) value).getValue();
+
+			// at least one byte per character
+			if (text != null && text.length() >= threshold)
+			{
+				compressed = Compression.compress(text.getBytes(UTF8), Compression.TEXT);
+			}
+		}
+		return compressed == null ? value : new Blob(compressed);
+	}
+}
@@ -5,11 +5,12 @@ import java.util.Set;
 
 import com.vercer.engine.persist.Path;
 import com.vercer.engine.persist.Property;
-import com.vercer.engine.persist.PropertyTranslator;
+import com.vercer.engine.persist.PropertySink;
+import com.vercer.engine.persist.StreamingPropertyTranslator;
 import com.vercer.engine.persist.util.PropertySets;
 import com.vercer.engine.persist.util.SinglePropertySet;
 
-public class DirectTranslator implements PropertyTranslator
+public class DirectTranslator implements StreamingPropertyTranslator
 {
 	public Object propertiesToTypesafe(Set<Property> properties, Path path, Type type)
 	{
@@ -43,4 +44,17 @@ public class DirectTranslator implements PropertyTranslator
 			return null;
 		}
 	}
+
+	public boolean typesafeToSink(Object object, Path path, boolean indexed, PropertySink sink)
+	{
+		if (isDirectType(object.getClass()))
+		{
+			sink.property(path, object, indexed);
+			return true;
+		}
+		else
+		{
+			return false;
+		}
+	}
 }
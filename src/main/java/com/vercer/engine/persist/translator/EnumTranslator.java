@@ -7,13 +7,13 @@ import java.util.Set;
 import com.vercer.engine.persist.Path;
 import com.vercer.engine.persist.Property;
 import com.vercer.engine.persist.PropertyTranslator;
+import com.vercer.engine.persist.util.EnumConstants;
 import com.vercer.engine.persist.util.SimpleProperty;
 import com.vercer.engine.persist.util.generic.GenericTypeReflector;
 
 public class EnumTranslator implements PropertyTranslator
 {
 
-	@SuppressWarnings("unchecked")
 	public Object propertiesToTypesafe(Set<Property> properties, Path path, Type type)
 	{
 		Class<?> clazz = GenericTypeReflector.erase(type);
@@ -21,8 +21,7 @@ public class EnumTranslator implements PropertyTranslator
 		{
 			Property property = properties.iterator().next();
 			String name = (String) property.getValue();
-			Class<? extends Enum> ce = (Class<? extends Enum>) clazz;
-			return Enum.valueOf(ce, name);
+			return EnumConstants.valueOf(clazz, name);
 		}
 		else
 		{
@@ -1,35 +1,42 @@
 package com.vercer.engine.persist.translator;
 
 import java.io.Serializable;
-import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.util.AbstractSet;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Map.Entry;
+import java.util.SortedSet;
 
 import com.google.appengine.api.datastore.Blob;
-import com.google.common.collect.Lists;
 import com.vercer.engine.persist.Path;
 import com.vercer.engine.persist.Property;
+import com.vercer.engine.persist.PropertySink;
 import com.vercer.engine.persist.PropertyTranslator;
+import com.vercer.engine.persist.StreamingPropertyTranslator;
 import com.vercer.engine.persist.Path.Part;
 import com.vercer.engine.persist.conversion.DefaultTypeConverter.BlobToAnything;
 import com.vercer.engine.persist.conversion.DefaultTypeConverter.SerializableToBlob;
 import com.vercer.engine.persist.standard.StrategyObjectDatastore;
-import com.vercer.engine.persist.util.SimpleProperty;
-import com.vercer.engine.persist.util.SinglePropertySet;
-import com.vercer.engine.persist.util.generic.GenericTypeReflector;
+import com.vercer.engine.persist.util.PropertyBuffer;
+import com.vercer.engine.persist.util.PropertySinks;
+import com.vercer.engine.persist.util.RowPropertySet;
+import com.vercer.engine.persist.util.generic.CachedTypeReflector;
 
-public class ListTranslator extends DecoratingTranslator
+public class ListTranslator extends DecoratingTranslator implements StreamingPropertyTranslator
 {
+	private static final Comparator<Property> pathComparator = new Comparator<Property>()
+	{
+		public int compare(Property o1, Property o2)
+		{
+			return o1.getPath().compareTo(o2.getPath());
+		}
+	};
+
 	public ListTranslator(PropertyTranslator chained)
 	{
 		super(chained);
@@ -38,7 +45,7 @@ public class ListTranslator extends DecoratingTranslator
 	public Object propertiesToTypesafe(final Set<Property> properties, final Path path, Type type)
 	{
 		// only handle lists
-		if (!GenericTypeReflector.erase(type).isAssignableFrom(ArrayList.class))
+		if (!CachedTypeReflector.erase(type).isAssignableFrom(ArrayList.class))
 		{
 			// pass on all other types down the chain
 			return chained.propertiesToTypesafe(properties, path, type);
@@ -49,59 +56,66 @@ public class ListTranslator extends DecoratingTranslator
 			return NULL_VALUE;
 		}
 
-		// need to adapt a set of property lists into a list of property sets
-		List<Set<Property>> propertySets = Lists.newArrayList();
-		boolean complete = false;
-		for (int index = 0; !complete; index++)
+		// each property is a column of values with one row per item
+		Property[] columns = properties.toArray(new Property[properties.size()]);
+		if (properties instanceof SortedSet<?> == false)
 		{
-			complete = true;
-			Set<Property> result = new HashSet<Property>(properties.size());
-			for (Property property : properties)
-			{
-				List<?> values;
-				Path itemPath = property.getPath();
-				Object list = property.getValue();
-				
-				// every property should be of the same type but just repeat check
-				if (list instanceof List<?>)
-				{
-					// we have a list of property values
-					values = (List<?>) list;
-				}
-				else
-				{
-					// we could not handle this value so pass the whole thing down the line
-					return chained.propertiesToTypesafe(properties, path, type);
-				}
-
-				if (values.size() > index)
-				{
-					Object value = values.get(index);
-
-					// null values are place holders for missing properties
-					if (value != null)
-					{
-						result.add(new SimpleProperty(itemPath, value, true));
-					}
-					// at least one property has items so we are not done yet
-					complete = false;
-				}
-			}
+			// items are given sorted properties so they are not sorted again
+			Arrays.sort(columns, pathComparator);
+		}
 
-			if (complete == false)
+		int rows = 0;
+		Path[] paths = new Path[columns.length];
+		List<?>[] values = new List<?>[columns.length];
+		for (int i = 0; i < columns.length; i++)
+		{
+			// every property should be of the same type but just repeat check
+			if (columns[i].getValue() instanceof List<?> == false)
 			{
-				propertySets.add(result);
+				// we could not handle this value so pass the whole thing down the line
+				return chained.propertiesToTypesafe(properties, path, type);
 			}
+			paths[i] = columns[i].getPath();
+			values[i] = (List<?>) columns[i].getValue();
+			rows = Math.max(rows, values[i].size());
 		}
 
 		// handles the tricky task of finding what type of list we have
-		Type exact = GenericTypeReflector.getExactSuperType(type, List.class);
-		Type componentType = ((ParameterizedType) exact).getActualTypeArguments()[0];
+		Type componentType = CachedTypeReflector.getTypeArguments(type, List.class)[0];
+
+		// rows with a value in every column share the same cells
+		int[] all = new int[columns.length];
+		for (int i = 0; i < all.length; i++)
+		{
+			all[i] = i;
+		}
 
-		// decode each item of the list
-		List<Object> objects = new ArrayList<Object>();
-		for (Set<Property> itemProperties : propertySets)
+		// decode each item of the list from a view of its row of the columns
+		List<Object> objects = new ArrayList<Object>(rows);
+		for (int row = 0; row < rows; row++)
 		{
+			int[] cells = all;
+			int count = 0;
+			for (int i = 0; i < values.length; i++)
+			{
+				// null values are place holders for missing properties
+				if (values[i].size() > row && values[i].get(row) != null)
+				{
+					if (cells != all)
+					{
+						cells[count] = i;
+					}
+					count++;
+				}
+				else if (cells == all)
+				{
+					// copy the columns seen so far because this row is missing some
+					cells = new int[columns.length];
+					System.arraycopy(all, 0, cells, 0, count);
+				}
+			}
+
+			Set<Property> itemProperties = new RowPropertySet(paths, values, row, cells, count, true);
 			Object convertedChild = chained.propertiesToTypesafe(itemProperties, path, componentType);
 
 			// if we cannot convert every member of the list we fail
@@ -110,6 +124,12 @@ public class ListTranslator extends DecoratingTranslator
 				return null;
 			}
 
+			// a row with no values was a null item
+			if (convertedChild == NULL_VALUE)
+			{
+				convertedChild = null;
+			}
+
 			objects.add(convertedChild);
 		}
 
@@ -117,113 +137,113 @@ public class ListTranslator extends DecoratingTranslator
 		return objects;
 	}
 
-	public Set<Property> typesafeToProperties(Object object, Path path, final boolean indexed)
+	public Set<Property> typesafeToProperties(Object object, Path path, boolean indexed)
+	{
+		return PropertySinks.toProperties(this, object, path, indexed);
+	}
+
+	public boolean typesafeToSink(Object object, Path path, boolean indexed, PropertySink sink)
 	{
-		if (object instanceof List<?>)
+		if (object instanceof List<?> == false)
 		{
-			List<?> list = (List<?>) object;
+			// we could not handle value as a collection so continue up the chain
+			return PropertySinks.encode(chained, object, path, indexed, sink);
+		}
 
-			if (list.isEmpty())
-			{
-				return Collections.emptySet();
-			}
+		List<?> list = (List<?>) object;
+		if (list.isEmpty())
+		{
+			return true;
+		}
 
-			final Map<Path, List<Object>> lists = new HashMap<Path, List<Object>>(8);
+		// columns are usually in the same order for every item so try the
+		// same position before looking up the path
+		List<Path> paths = new ArrayList<Path>(4);
+		List<List<Object>> columns = new ArrayList<List<Object>>(4);
+		Map<Path, Integer> positions = null;
 
-			int count = 0;
-			for (Object item : list)
+		PropertyBuffer item = new PropertyBuffer();
+		int size = list.size();
+		for (int row = 0; row < size; row++)
+		{
+			Object value = list.get(row);
+			if (value == null)
 			{
-				if (item != null)
-				{
-					Set<Property> properties = chained.typesafeToProperties(item, path, indexed);
-
-					if (properties == null)
-					{
-						// we could not handle so continue up the chain
-						return chained.typesafeToProperties(object, path, indexed);
-					}
-
-					for (Property property : properties)
-					{
-						Object value = property.getValue();
-						Path itemPath = property.getPath();
+				// missing values are padded when the next value is added
+				continue;
+			}
 
-						List<Object> values = lists.get(itemPath);
-						if (values == null)
-						{
-							values = new ArrayList<Object>(4);
+			item.truncate(0);
+			if (!PropertySinks.encode(chained, value, path, indexed, item))
+			{
+				// we could not handle so continue up the chain
+				return PropertySinks.encode(chained, object, path, indexed, sink);
+			}
 
-							lists.put(itemPath, values);
-						}
+			for (int cell = 0; cell < item.size(); cell++)
+			{
+				Path itemPath = item.getPath(cell);
 
-						// need to pad the list with nulls if any values are missing
-						while (values.size() < count)
-						{
-							values.add(null);
-						}
-						values.add(value);
-					}
+				int position;
+				if (cell < paths.size() && paths.get(cell).equals(itemPath))
+				{
+					position = cell;
 				}
-				else
+				else if (positions == null && cell == paths.size())
 				{
-					Collection<List<Object>> values = lists.values();
-					for (List<Object> value : values)
-					{
-						value.add(null);
-					}
+					// all paths matched by position so far so this one is new
+					position = addColumn(itemPath, paths, columns, size);
 				}
-				count++;
-			}
-
-			// optimise for case of single properties
-			if (lists.size() == 1)
-			{
-				Path childPath = lists.keySet().iterator().next();
-				List<?> values = lists.get(childPath);
-				return new SinglePropertySet(childPath, values, indexed);
-			}
-			else
-			{
-				return new AbstractSet<Property>()
+				else
 				{
-					@Override
-					public Iterator<Property> iterator()
+					if (positions == null)
 					{
-						return new Iterator<Property>()
+						positions = new HashMap<Path, Integer>();
+						for (int i = 0; i < paths.size(); i++)
 						{
-							Iterator<Entry<Path, List<Object>>> iterator = lists.entrySet().iterator();
-
-							public boolean hasNext()
-							{
-								return iterator.hasNext();
-							}
-
-							public Property next()
-							{
-								Entry<Path, List<Object>> next = iterator.next();
-								return new SimpleProperty(next.getKey(), next.getValue(), indexed);
-							}
-
-							public void remove()
-							{
-								throw new UnsupportedOperationException();
-							}
-						};
+							positions.put(paths.get(i), i);
+						}
 					}
 
-					@Override
-					public int size()
+					Integer existing = positions.get(itemPath);
+					if (existing == null)
+					{
+						position = addColumn(itemPath, paths, columns, size);
+						positions.put(itemPath, position);
+					}
+					else
 					{
-						return lists.size();
+						position = existing;
 					}
-				};
+				}
+
+				// need to pad the list with nulls if any values are missing
+				List<Object> values = columns.get(position);
+				if (values.size() < row)
+				{
+					values.addAll(Collections.nCopies(row - values.size(), null));
+				}
+				values.add(item.getValue(cell));
 			}
 		}
-		else
+
+		for (int i = 0; i < paths.size(); i++)
 		{
-			// we could not handle value as a collection so continue up the chain
-			return chained.typesafeToProperties(object, path, indexed);
+			// pad trailing missing values so every column has a value per item
+			List<Object> values = columns.get(i);
+			if (values.size() < size)
+			{
+				values.addAll(Collections.nCopies(size - values.size(), null));
+			}
+			sink.property(paths.get(i), values, indexed);
 		}
+		return true;
 	}
 
+	private static int addColumn(Path path, List<Path> paths, List<List<Object>> columns, int size)
+	{
+		paths.add(path);
+		columns.add(new ArrayList<Object>(size));
+		return paths.size() - 1;
+	}
 }
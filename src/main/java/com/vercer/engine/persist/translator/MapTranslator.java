@@ -1,6 +1,5 @@
 package com.vercer.engine.persist.translator;
 
-import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -11,15 +10,19 @@ import java.util.Set;
 
 import com.vercer.engine.persist.Path;
 import com.vercer.engine.persist.Property;
+import com.vercer.engine.persist.PropertySink;
 import com.vercer.engine.persist.PropertyTranslator;
+import com.vercer.engine.persist.StreamingPropertyTranslator;
 import com.vercer.engine.persist.Path.Part;
 import com.vercer.engine.persist.conversion.TypeConverter;
+import com.vercer.engine.persist.util.PropertyBuffer;
 import com.vercer.engine.persist.util.PropertySets;
+import com.vercer.engine.persist.util.PropertySinks;
 import com.vercer.engine.persist.util.PropertySets.PrefixPropertySet;
-import com.vercer.engine.persist.util.generic.GenericTypeReflector;
+import com.vercer.engine.persist.util.generic.CachedTypeReflector;
 import com.vercer.util.collections.MergeSet;
 
-public class MapTranslator extends DecoratingTranslator
+public class MapTranslator extends DecoratingTranslator implements StreamingPropertyTranslator
 {
 	private final TypeConverter converter;
 
@@ -33,7 +36,7 @@ public class MapTranslator extends DecoratingTranslator
 	public Object propertiesToTypesafe(Set<Property> properties, Path path, Type type)
 	{
 		// only try if we can set a map to the field
-		if (!GenericTypeReflector.erase(type).isAssignableFrom(HashMap.class))
+		if (!CachedTypeReflector.erase(type).isAssignableFrom(HashMap.class))
 		{
 			// pass on all other types down the chain
 			return chained.propertiesToTypesafe(properties, path, type);
@@ -48,9 +51,9 @@ public class MapTranslator extends DecoratingTranslator
 		Collection<PrefixPropertySet> ppss = PropertySets.prefixPropertySets(properties, path);
 
 		// find the types of the key and value from the generic parameters
-		Type exact = GenericTypeReflector.getExactSuperType(type, Map.class);
-		Type keyType = ((ParameterizedType) exact).getActualTypeArguments()[0];
-		Type valueType = ((ParameterizedType) exact).getActualTypeArguments()[1];
+		Type[] arguments = CachedTypeReflector.getTypeArguments(type, Map.class);
+		Type keyType = arguments[0];
+		Type valueType = arguments[1];
 		
 		// type erasure means we can use object as the generic parameters
 		Map<Object, Object> result = new HashMap<Object, Object>(ppss.size());
@@ -99,4 +102,43 @@ public class MapTranslator extends DecoratingTranslator
 		return merged;
 	}
 
+	public boolean typesafeToSink(Object instance, Path path, boolean indexed, PropertySink sink)
+	{
+		if (instance instanceof Map<?, ?> == false)
+		{
+			// pass it on down the line
+			return PropertySinks.encode(chained, instance, path, indexed, sink);
+		}
+
+		// values are buffered so a value that cannot be handled can be undone
+		PropertyBuffer buffer;
+		if (sink instanceof PropertyBuffer)
+		{
+			buffer = (PropertyBuffer) sink;
+		}
+		else
+		{
+			buffer = new PropertyBuffer();
+		}
+		int mark = buffer.size();
+
+		Map<?, ?> map = (Map<?, ?>) instance;
+		for (Map.Entry<?, ?> entry : map.entrySet())
+		{
+			String keyString = converter.convert(entry.getKey(), String.class); 
+			Path childPath = Path.builder(path).field(keyString).build();
+			if (!PropertySinks.encode(chained, entry.getValue(), childPath, indexed, buffer))
+			{
+				// we could not handle a value so pass the whole map down the chain
+				buffer.truncate(mark);
+				return PropertySinks.encode(chained, instance, path, indexed, sink);
+			}
+		}
+
+		if (buffer != sink)
+		{
+			buffer.transferTo(sink);
+		}
+		return true;
+	}
 }
@@ -0,0 +1,102 @@
+package com.vercer.engine.persist.translator;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.google.appengine.api.datastore.DataTypeUtils;
+import com.vercer.engine.persist.Path;
+import com.vercer.engine.persist.Property;
+import com.vercer.engine.persist.PropertySink;
+import com.vercer.engine.persist.PropertyTranslator;
+import com.vercer.engine.persist.StreamingPropertyTranslator;
+import com.vercer.engine.persist.util.PropertySinks;
+import com.vercer.engine.persist.util.SinglePropertySet;
+import com.vercer.engine.persist.util.generic.CachedTypeReflector;
+
+/**
+ * Stores lists of values that the datastore supports natively as a single
+ * property without translating each item. Anything else is passed on to the
+ * chained translator which would normally be a {@link ListTranslator}.
+ */
+public class NativeCollectionTranslator extends DecoratingTranslator implements StreamingPropertyTranslator
+{
+	public NativeCollectionTranslator(PropertyTranslator chained)
+	{
+		super(chained);
+	}
+
+	public Object propertiesToTypesafe(Set<Property> properties, Path path, Type type)
+	{
+		if (properties.size() == 1 && CachedTypeReflector.erase(type).isAssignableFrom(ArrayList.class))
+		{
+			Property property = properties.iterator().next();
+			if (property.getValue() instanceof List<?> && property.getPath().equals(path))
+			{
+				Type componentType = CachedTypeReflector.getTypeArguments(type, List.class)[0];
+				if (isNativeType(CachedTypeReflector.erase(componentType)))
+				{
+					// items are converted to the field type when the field is set
+					return new ArrayList<Object>((List<?>) property.getValue());
+				}
+			}
+		}
+		return chained.propertiesToTypesafe(properties, path, type);
+	}
+
+	public Set<Property> typesafeToProperties(Object instance, Path path, boolean indexed)
+	{
+		if (isNativeList(instance))
+		{
+			return new SinglePropertySet(path, new ArrayList<Object>((List<?>) instance), indexed);
+		}
+		return chained.typesafeToProperties(instance, path, indexed);
+	}
+
+	public boolean typesafeToSink(Object instance, Path path, boolean indexed, PropertySink sink)
+	{
+		if (isNativeList(instance))
+		{
+			// copy so the entity does not share the list with the instance
+			sink.property(path, new ArrayList<Object>((List<?>) instance), indexed);
+			return true;
+		}
+		return PropertySinks.encode(chained, instance, path, indexed, sink);
+	}
+
+	private boolean isNativeList(Object instance)
+	{
+		if (instance instanceof List<?> == false)
+		{
+			return false;
+		}
+
+		List<?> list = (List<?>) instance;
+		if (list.isEmpty())
+		{
+			// let the chained translator decide how to store nothing
+			return false;
+		}
+
+		// items are usually all the same class so only check each new one
+		Class<?> checked = null;
+		for (Object item : list)
+		{
+			if (item != null && item.getClass() != checked)
+			{
+				if (!isNativeType(item.getClass()))
+				{
+					return false;
+				}
+				checked = item.getClass();
+			}
+		}
+		return true;
+	}
+
+	protected boolean isNativeType(Class<?> type)
+	{
+		return DataTypeUtils.isSupportedType(type);
+	}
+}
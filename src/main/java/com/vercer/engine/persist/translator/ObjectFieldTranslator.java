@@ -18,20 +18,22 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import com.vercer.engine.persist.Path;
 import com.vercer.engine.persist.Property;
+import com.vercer.engine.persist.PropertySink;
 import com.vercer.engine.persist.PropertyTranslator;
+import com.vercer.engine.persist.StreamingPropertyTranslator;
 import com.vercer.engine.persist.conversion.TypeConverter;
 import com.vercer.engine.persist.util.PropertySets;
-import com.vercer.engine.persist.util.SimpleProperty;
+import com.vercer.engine.persist.util.PropertySinks;
 import com.vercer.engine.persist.util.PropertySets.PrefixPropertySet;
 import com.vercer.engine.persist.util.generic.GenericTypeReflector;
+import com.vercer.util.FieldAccessor;
 import com.vercer.util.Reflection;
-import com.vercer.util.collections.MergeSet;
 
 /**
  * @author John Patterson <john@vercer.com>
  *
  */
-public abstract class ObjectFieldTranslator implements PropertyTranslator
+public abstract class ObjectFieldTranslator implements StreamingPropertyTranslator
 {
 	private static final Comparator<Field> comparator = new Comparator<Field>()
 	{
@@ -40,12 +42,97 @@ public abstract class ObjectFieldTranslator implements PropertyTranslator
 			return o1.getName().compareTo(o2.getName());
 		}
 	};
+	private static final Comparator<FieldMapping> mappingComparator = new Comparator<FieldMapping>()
+	{
+		public int compare(FieldMapping o1, FieldMapping o2)
+		{
+			return o1.name.compareTo(o2.name);
+		}
+	};
 	private final TypeConverter converters;
 
 	// permanent cache of class fields to reduce reflection
 	private static Map<Class<?>, List<Field>> classFields = new ConcurrentHashMap<Class<?>, List<Field>>();
 	private static Map<Class<?>, Constructor<?>> constructors = new ConcurrentHashMap<Class<?>, Constructor<?>>();
 
+	// mappings depend on the strategy methods of this translator so are not shared
+	private final Map<Class<?>, FieldMapping[]> mappings = new ConcurrentHashMap<Class<?>, FieldMapping[]>();
+
+	/**
+	 * Everything needed to encode or decode a stored field that does not
+	 * depend on the field value. Built once per class so the strategy
+	 * methods are not called for every instance.
+	 */
+	protected static final class FieldMapping
+	{
+		private final Field field;
+		private final String name;
+		private final Path root;
+		private final Type type;
+		private final boolean indexed;
+		private final PropertyTranslator translator;
+		private final FieldAccessor accessor;
+
+		private FieldMapping(Field field, String name, Type type, boolean indexed, PropertyTranslator translator)
+		{
+			this.field = field;
+			this.name = name;
+			this.root = new Path.Builder(Path.EMPTY_PATH).field(name).build();
+			this.type = type;
+			this.indexed = indexed;
+			this.translator = translator;
+			this.accessor = FieldAccessor.create(field);
+		}
+
+		public Field getField()
+		{
+			return field;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return The path of this field under the given prefix - shared for root instances
+		 */
+		public Path getPath(Path prefix)
+		{
+			if (prefix.isEmpty())
+			{
+				return root;
+			}
+			else
+			{
+				return new Path.Builder(prefix).field(name).build();
+			}
+		}
+
+		public Type getType()
+		{
+			return type;
+		}
+
+		public FieldAccessor getAccessor()
+		{
+			return accessor;
+		}
+
+		public boolean isIndexed()
+		{
+			return indexed;
+		}
+
+		/**
+		 * @return The translator for every value of this field or null if it must be chosen per value
+		 */
+		public PropertyTranslator getTranslator()
+		{
+			return translator;
+		}
+	}
+
 	public ObjectFieldTranslator(TypeConverter converters)
 	{
 		this.converters = converters;
@@ -68,88 +155,97 @@ public abstract class ObjectFieldTranslator implements PropertyTranslator
 		}
 
 		// both fields and properties are sorted by name
-		List<Field> fields = getSortedFields(instance);
+		FieldMapping[] mappings = getFieldMappings(instance.getClass());
 		Iterator<PrefixPropertySet> ppss = PropertySets.prefixPropertySets(properties, path).iterator();
 		PrefixPropertySet pps = null;
-		for (Field field : fields)
+		for (FieldMapping mapping : mappings)
 		{
-			if (stored(field))
+			Field field = mapping.field;
+			Path fieldPath = mapping.getPath(path);
+
+			// handle missing class fields by ignoring the properties
+			while (ppss.hasNext() && (pps == null || pps.getPrefix().compareTo(fieldPath) < 0))
 			{
-				String name = fieldToPartName(field);
-				Path fieldPath = new Path.Builder(path).field(name).build();
-				
-				// handle missing class fields by ignoring the properties
-				while (ppss.hasNext() && (pps == null || pps.getPrefix().compareTo(fieldPath) < 0))
-				{
-					pps = ppss.next();
-				}
-				
-				// if there are no properties for the field we must still
-				// run a translator because some translators do not require
-				// any fields to set a field value e.g. KeyTranslator
-				Set<Property> childProperties;
-				if (pps == null || !fieldPath.equals(pps.getPrefix()))
-				{
-					// there were no properties for this field
-					childProperties = Collections.emptySet();
-				}
-				else
-				{
-					childProperties = pps.getProperties();
-				}
+				pps = ppss.next();
+			}
 
-				// get the correct translator for this field
-				PropertyTranslator translator = decoder(field, childProperties);
+			// if there are no properties for the field we must still
+			// run a translator because some translators do not require
+			// any fields to set a field value e.g. KeyTranslator
+			Set<Property> childProperties;
+			if (pps == null || !fieldPath.equals(pps.getPrefix()))
+			{
+				// there were no properties for this field
+				childProperties = Collections.emptySet();
+			}
+			else
+			{
+				childProperties = pps.getProperties();
+			}
 
-				// get the type that we need to store
-				Type type = typeFromField(field);
+			// get the correct translator for this field
+			PropertyTranslator translator = mapping.translator;
+			if (translator == null)
+			{
+				translator = decoder(field, childProperties);
+			}
 
-				onBeforeTranslate(field, childProperties);
+			onBeforeTranslate(field, childProperties);
 
-				// create instance
-				Object value;
-				try
-				{
-					value = translator.propertiesToTypesafe(childProperties, fieldPath, type);
-				}
-				catch (Exception e)
-				{
-					// add a bit of context to the trace
-					throw new IllegalStateException("Problem translating field " + field, e);
-				}
+			// create instance
+			Object value;
+			try
+			{
+				value = translator.propertiesToTypesafe(childProperties, fieldPath, mapping.type);
+			}
+			catch (Exception e)
+			{
+				// add a bit of context to the trace
+				throw new IllegalStateException("Problem translating field " + field, e);
+			}
 
-				onAfterTranslate(field, value);
+			onAfterTranslate(field, value);
 
-				if (value == null)
-				{
-					throw new IllegalStateException("Could not translate path " + fieldPath);
-				}
+			if (value == null)
+			{
+				throw new IllegalStateException("Could not translate path " + fieldPath);
+			}
 
-				if (value == NULL_VALUE)
-				{
-					value = null;
-				}
-				
-				setFieldValue(instance, field, value);
+			if (value == NULL_VALUE)
+			{
+				value = null;
 			}
+
+			setFieldValue(instance, mapping, value);
 		}
 	}
 
-	private void setFieldValue(Object instance, Field field, Object value)
+	private void setFieldValue(Object instance, FieldMapping mapping, Object value)
 	{
+		Field field = mapping.field;
+		FieldAccessor accessor = mapping.accessor;
+
 		// check for a default implementations of collections and reuse
 		if (Collection.class.isAssignableFrom(field.getType()))
 		{
 			try
 			{
 				// see if there is a default value
-				Collection<?> existing = (Collection<?>) field.get(instance);
+				Collection<?> existing = (Collection<?>) accessor.get(instance);
 				if (existing != null && value!= null && existing.getClass() != value.getClass())
 				{
-					// make sure the value is a list - could be a blob
-					value = converters.convert(value, ArrayList.class);
-					
+					// make sure the value is a collection - could be a blob
+					if (value instanceof Collection<?> == false)
+					{
+						value = converters.convert(value, ArrayList.class);
+					}
+
+					// fill the existing collection in one pass
 					existing.clear();
+					if (existing instanceof ArrayList<?>)
+					{
+						((ArrayList<?>) existing).ensureCapacity(((Collection<?>) value).size());
+					}
 					typesafeAddAll((Collection<?>) value, existing);
 					return;
 				}
@@ -164,11 +260,14 @@ public abstract class ObjectFieldTranslator implements PropertyTranslator
 			try
 			{
 				// see if there is a default value
-				Map<?, ?> existing = (Map<?, ?>) field.get(instance);
+				Map<?, ?> existing = (Map<?, ?>) accessor.get(instance);
 				if (existing != null && value!= null && existing.getClass() != value.getClass())
 				{
 					// make sure the value is a map - could be a blob
-					value = converters.convert(value, HashMap.class);
+					if (value instanceof Map<?, ?> == false)
+					{
+						value = converters.convert(value, HashMap.class);
+					}
 					
 					existing.clear();
 					typesafePutAll((Map<?, ?>) value, existing);
@@ -190,7 +289,7 @@ public abstract class ObjectFieldTranslator implements PropertyTranslator
 		
 		try
 		{
-			field.set(instance, value);
+			accessor.set(instance, value);
 		}
 		catch (Exception e)
 		{
@@ -266,69 +365,93 @@ public abstract class ObjectFieldTranslator implements PropertyTranslator
 	}
 
 	public final Set<Property> typesafeToProperties(Object object, Path path, boolean indexed)
+	{
+		return PropertySinks.toProperties(this, object, path, indexed);
+	}
+
+	public final boolean typesafeToSink(Object object, Path path, boolean indexed, PropertySink sink)
 	{
 		if (object == null)
 		{
-			return Collections.emptySet();
+			return true;
 		}
 
-		try
+		FieldMapping[] mappings = getFieldMappings(object.getClass());
+		for (FieldMapping mapping : mappings)
 		{
-			List<Field> fields = getSortedFields(object);
-			MergeSet<Property> merged = new MergeSet<Property>(fields.size());
-			for (Field field : fields)
+			// we may need to convert the object if it is not assignable
+			Object value = mapping.accessor.get(object);
+			if (value == null)
 			{
-				if (stored(field))
+				if (isNullStored())
 				{
-					// get the type that we need to store
-					Type type = typeFromField(field);
+					sink.property(path, null, indexed);
+				}
+				continue;
+			}
 
-					// we may need to convert the object if it is not assignable
-					Object value = field.get(object);
-					if (value == null)
-					{
-						if (isNullStored())
-						{
-							merged.add(new SimpleProperty(path, null, indexed));
-						}
-						continue;
-					}
+			value = converters.convert(value, mapping.type);
 
-					value = converters.convert(value, type);
+			Path childPath = mapping.getPath(path);
 
-					Path childPath = new Path.Builder(path).field(fieldToPartName(field)).build();
+			PropertyTranslator translator = mapping.translator;
+			if (translator == null)
+			{
+				translator = encoder(mapping.field, value);
+			}
+			if (!PropertySinks.encode(translator, value, childPath, mapping.indexed, sink))
+			{
+				throw new IllegalStateException("Could not translate value to properties: " + value);
+			}
+		}
 
-					PropertyTranslator translator = encoder(field, value);
-					Set<Property> properties = translator.typesafeToProperties(value, childPath, indexed(field));
-					if (properties == null)
-					{
-						throw new IllegalStateException("Could not translate value to properties: " + value);
-					}
-					merged.addAll(properties);
+		return true;
+	}
+
+	/**
+	 * @return The stored fields of the class ordered by property name
+	 */
+	protected final FieldMapping[] getFieldMappings(Class<?> clazz)
+	{
+		FieldMapping[] result = mappings.get(clazz);
+		if (result == null)
+		{
+			List<Field> fields = getSortedFields(clazz);
+			List<FieldMapping> stored = new ArrayList<FieldMapping>(fields.size());
+			for (Field field : fields)
+			{
+				if (stored(field))
+				{
+					stored.add(new FieldMapping(field,
+							fieldToPartName(field),
+							typeFromField(field),
+							indexed(field),
+							translator(field)));
 				}
 			}
 
-			return merged;
-		}
-		catch (IllegalAccessException e)
-		{
-			throw new IllegalStateException(e);
+			// properties are ordered by path which can differ from the field name
+			Collections.sort(stored, mappingComparator);
+
+			result = stored.toArray(new FieldMapping[stored.size()]);
+			mappings.put(clazz, result);
 		}
+		return result;
 	}
 
-	private List<Field> getSortedFields(Object object)
+	private List<Field> getSortedFields(Class<?> clazz)
 	{
 		// fields are cached and stored as a map because reading more common than writing
-		List<Field> fields = classFields.get(object.getClass());
+		List<Field> fields = classFields.get(clazz);
 		if (fields == null)
 		{
-			fields = Reflection.getAccessibleFields(object.getClass());
+			fields = Reflection.getAccessibleFields(clazz);
 
 			// sort the fields by name
 			Collections.sort(fields, comparator);
 
 			// cache because reflection is costly
-			classFields.put(object.getClass(), fields);
+			classFields.put(clazz, fields);
 		}
 		return fields;
 	}
@@ -342,6 +465,16 @@ public abstract class ObjectFieldTranslator implements PropertyTranslator
 
 	protected abstract boolean stored(Field field);
 
+	/**
+	 * @return The translator used for every value of this field or null to
+	 *         call {@link #encoder(Field, Object)} and
+	 *         {@link #decoder(Field, Set)} for each value
+	 */
+	protected PropertyTranslator translator(Field field)
+	{
+		return null;
+	}
+
 	protected abstract PropertyTranslator encoder(Field field, Object instance);
 	
 	protected abstract PropertyTranslator decoder(Field field, Set<Property> properties);
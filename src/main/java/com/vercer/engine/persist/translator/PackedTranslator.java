@@ -0,0 +1,243 @@
+package com.vercer.engine.persist.translator;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.appengine.api.datastore.Blob;
+import com.vercer.engine.persist.Path;
+import com.vercer.engine.persist.Property;
+import com.vercer.engine.persist.PropertySink;
+import com.vercer.engine.persist.StreamingPropertyTranslator;
+import com.vercer.engine.persist.util.EnumConstants;
+import com.vercer.engine.persist.util.PropertySets;
+import com.vercer.engine.persist.util.PropertySinks;
+import com.vercer.engine.persist.util.generic.CachedTypeReflector;
+import com.vercer.engine.persist.util.io.PackedArrays;
+
+/**
+ * Stores a primitive array, collection of numbers or map of numbers to
+ * numbers as a single unindexed Blob which is decoded straight into a
+ * primitive array without boxing. Sets of enums are stored as a bit for
+ * each ordinal in a Long or in a Blob for enums with more than 64 constants
+ * and other collections of enums as their packed ordinals so constants must
+ * not be reordered. Empty collections of enums are stored as 0.
+ * The declared type of the field must be used so the value is not first
+ * converted to a list.
+ */
+public class PackedTranslator implements StreamingPropertyTranslator
+{
+	private final Class<?> enumType;
+	private final boolean enumSet;
+
+	/**
+	 * Only packs enums that are in an EnumSet
+	 */
+	public PackedTranslator()
+	{
+		this(null);
+	}
+
+	/**
+	 * @param type The declared type of the field which decides how collections of enums are packed
+	 */
+	public PackedTranslator(Type type)
+	{
+		enumType = enumComponent(type);
+		enumSet = enumType != null && Set.class.isAssignableFrom(CachedTypeReflector.erase(type));
+	}
+
+	private static Class<?> enumComponent(Type type)
+	{
+		Type component = type == null ? null : CachedTypeReflector.getComponentType(type);
+		if (component != null && CachedTypeReflector.erase(component).isEnum())
+		{
+			return CachedTypeReflector.erase(component);
+		}
+		return null;
+	}
+
+	public Object propertiesToTypesafe(Set<Property> properties, Path path, Type type)
+	{
+		if (properties.isEmpty())
+		{
+			return NULL_VALUE;
+		}
+
+		Object value = PropertySets.firstValue(properties);
+		Class<?> enumComponent = enumComponent(type);
+		if (enumComponent != null && (value instanceof Long || value instanceof Blob))
+		{
+			if (Set.class.isAssignableFrom(CachedTypeReflector.erase(type)))
+			{
+				return unpackEnums(value, enumComponent);
+			}
+			else
+			{
+				return unpackOrdinals(value, enumComponent);
+			}
+		}
+		else if (value instanceof Blob)
+		{
+			byte[] bytes = ((Blob) value).getBytes();
+			Class<?> erased = CachedTypeReflector.erase(type);
+			if (erased.isArray())
+			{
+				return PackedArrays.unpack(bytes, erased.getComponentType());
+			}
+			else if (Map.class.isAssignableFrom(erased))
+			{
+				Type[] arguments = CachedTypeReflector.getTypeArguments(type, Map.class);
+				return PackedArrays.unpackMap(bytes, CachedTypeReflector.erase(arguments[0]), CachedTypeReflector.erase(arguments[1]));
+			}
+			else
+			{
+				Type componentType = CachedTypeReflector.getComponentType(type);
+				Class<?> component = componentType == null ? Object.class : CachedTypeReflector.erase(componentType);
+				return PackedArrays.unpack(bytes, component);
+			}
+		}
+		else if (value instanceof List<?>)
+		{
+			// stored before the field was packed so will be converted to the field type
+			return new ArrayList<Object>((List<?>) value);
+		}
+		else
+		{
+			return null;
+		}
+	}
+
+	public Set<Property> typesafeToProperties(Object instance, Path path, boolean indexed)
+	{
+		return PropertySinks.toProperties(this, instance, path, indexed);
+	}
+
+	public boolean typesafeToSink(Object instance, Path path, boolean indexed, PropertySink sink)
+	{
+		if (enumType != null && (instance instanceof Collection<?> || instance instanceof Object[]))
+		{
+			Collection<?> enums;
+			if (instance instanceof Collection<?>)
+			{
+				enums = (Collection<?>) instance;
+			}
+			else
+			{
+				enums = Arrays.asList((Object[]) instance);
+			}
+			sink.property(path, enumSet ? packEnums(enums) : packOrdinals(enums), false);
+			return true;
+		}
+		else if (enumType == null && instance instanceof EnumSet<?>)
+		{
+			sink.property(path, packEnums((Set<?>) instance), false);
+			return true;
+		}
+
+		if (!PackedArrays.isPackable(instance.getClass()))
+		{
+			return false;
+		}
+
+		// packed values cannot be queried so are never indexed
+		sink.property(path, new Blob(PackedArrays.pack(instance)), false);
+		return true;
+	}
+
+	// a bit for each ordinal in a long or a blob for large enums
+	private static Object packEnums(Collection<?> enums)
+	{
+		int maximum = -1;
+		for (Object item : enums)
+		{
+			maximum = Math.max(maximum, ((Enum<?>) item).ordinal());
+		}
+
+		if (maximum < 64)
+		{
+			long bits = 0;
+			for (Object item : enums)
+			{
+				bits |= 1L << ((Enum<?>) item).ordinal();
+			}
+			return bits;
+		}
+		else
+		{
+			byte[] bytes = new byte[maximum / 8 + 1];
+			for (Object item : enums)
+			{
+				int ordinal = ((Enum<?>) item).ordinal();
+				bytes[ordinal / 8] |= 1 << (ordinal % 8);
+			}
+			return new Blob(bytes);
+		}
+	}
+
+	// the ordinals in order or 0 when there are none
+	private static Object packOrdinals(Collection<?> enums)
+	{
+		if (enums.isEmpty())
+		{
+			return 0L;
+		}
+
+		int[] ordinals = new int[enums.size()];
+		int index = 0;
+		for (Object item : enums)
+		{
+			ordinals[index++] = ((Enum<?>) item).ordinal();
+		}
+		return new Blob(PackedArrays.pack(ordinals));
+	}
+
+	private static Object unpackOrdinals(Object value, Class<?> type)
+	{
+		if (value instanceof Long)
+		{
+			return new ArrayList<Object>();
+		}
+
+		int[] ordinals = (int[]) PackedArrays.unpack(((Blob) value).getBytes(), Integer.TYPE);
+		List<Object> result = new ArrayList<Object>(ordinals.length);
+		for (int ordinal : ordinals)
+		{
+			result.add(EnumConstants.valueOf(type, ordinal));
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object unpackEnums(Object value, Class<?> type)
+	{
+		EnumSet result = EnumSet.noneOf((Class<? extends Enum>) type);
+		if (value instanceof Long)
+		{
+			long bits = (Long) value;
+			while (bits != 0)
+			{
+				int ordinal = Long.numberOfTrailingZeros(bits);
+				result.add(EnumConstants.valueOf(type, ordinal));
+				bits &= bits - 1;
+			}
+		}
+		else
+		{
+			byte[] bytes = ((Blob) value).getBytes();
+			for (int ordinal = 0; ordinal < bytes.length * 8; ordinal++)
+			{
+				if ((bytes[ordinal / 8] & (1 << (ordinal % 8))) != 0)
+				{
+					result.add(EnumConstants.valueOf(type, ordinal));
+				}
+			}
+		}
+		return result;
+	}
+}
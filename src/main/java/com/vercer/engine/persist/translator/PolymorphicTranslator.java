@@ -7,46 +7,117 @@ import com.google.common.base.Predicates;
 import com.google.common.collect.Sets;
 import com.vercer.engine.persist.Path;
 import com.vercer.engine.persist.Property;
+import com.vercer.engine.persist.PropertySink;
 import com.vercer.engine.persist.PropertyTranslator;
+import com.vercer.engine.persist.StreamingPropertyTranslator;
 import com.vercer.engine.persist.strategy.FieldStrategy;
+import com.vercer.engine.persist.strategy.TypeDictionary;
 import com.vercer.engine.persist.util.PathPrefixPredicate;
+import com.vercer.engine.persist.util.PropertySets;
+import com.vercer.engine.persist.util.PropertySinks;
+import com.vercer.engine.persist.util.RowPropertySet;
 import com.vercer.engine.persist.util.SimpleProperty;
+import com.vercer.util.collections.ArraySortedSet;
 import com.vercer.util.collections.PrependSet;
 
-public class PolymorphicTranslator extends DecoratingTranslator
+public class PolymorphicTranslator extends DecoratingTranslator implements StreamingPropertyTranslator
 {
 	private static final String CLASS_NAME = "class";
+
 	private final FieldStrategy strategy;
+	private final TypeDictionary dictionary;
 
 	public PolymorphicTranslator(PropertyTranslator chained, FieldStrategy strategy)
+	{
+		this(chained, strategy, new TypeDictionary());
+	}
+
+	/**
+	 * @param dictionary Ids to store instead of class names
+	 */
+	public PolymorphicTranslator(PropertyTranslator chained, FieldStrategy strategy, TypeDictionary dictionary)
 	{
 		super(chained);
 		this.strategy = strategy;
+		this.dictionary = dictionary;
 	}
 
+	@SuppressWarnings("unchecked")
 	public Object propertiesToTypesafe(Set<Property> properties, final Path prefix, Type type)
 	{
-		String kindName = null;
+		Object kind = null;
 		Path kindNamePath = new Path.Builder(prefix).meta(CLASS_NAME).build();
-		for (Property property : properties)
+		if (properties instanceof ArraySortedSet<?>)
+		{
+			// find the class property by its path and copy the others
+			ArraySortedSet<Property> sorted = (ArraySortedSet<Property>) properties;
+			int index = PropertySets.indexOf(sorted, kindNamePath);
+			if (index >= 0)
+			{
+				kind = sorted.get(index).getValue();
+				properties = PropertySets.remove(sorted, index);
+			}
+		}
+		else if (properties instanceof RowPropertySet)
+		{
+			// an item of a list is a view of its row of values
+			RowPropertySet row = (RowPropertySet) properties;
+			int index = row.indexOf(kindNamePath);
+			if (index >= 0)
+			{
+				kind = row.getValue(index);
+				properties = row.remove(index);
+			}
+		}
+		else
 		{
-			if (property.getPath().equals(kindNamePath))
+			for (Property property : properties)
 			{
-				kindName = (String) property.getValue();
-				break;
+				if (property.getPath().equals(kindNamePath))
+				{
+					kind = property.getValue();
+					break;
+				}
+			}
+
+			if (kind != null)
+			{
+				// filter out the class name
+				properties = Sets.filter(properties, Predicates.not(new PathPrefixPredicate(kindNamePath)));
 			}
 		}
-		
+
 		// there may be no polymorphic field
-		if (kindName != null)
+		if (kind != null)
 		{
-			// filter out the class name
-			properties = Sets.filter(properties, Predicates.not(new PathPrefixPredicate(kindNamePath)));
-			type = strategy.kindToType(kindName);
+			type = kindToType(kind);
 		}
-		
+
 		return chained.propertiesToTypesafe(properties, prefix, type);
 	}
+
+	private Type kindToType(Object kind)
+	{
+		if (kind instanceof Long)
+		{
+			Class<?> result = dictionary.idToType((Long) kind);
+			if (result == null)
+			{
+				throw new IllegalStateException("No type registered with id " + kind);
+			}
+			return result;
+		}
+
+		// values stored before the type was registered
+		return strategy.kindToType((String) kind);
+	}
+
+	private Object typeToKind(Class<?> type)
+	{
+		Long id = dictionary.typeToId(type);
+		return id == null ? type.getName() : id;
+	}
+
 //
 //	protected Type className(Set<Property> properties, Path prefix)
 //	{
@@ -73,11 +144,24 @@ public class PolymorphicTranslator extends DecoratingTranslator
 	{
 		Set<Property> properties = chained.typesafeToProperties(object, prefix, indexed);
 
-		String className = object.getClass().getName();
+		Object kind = typeToKind(object.getClass());
 		Path classNamePath = new Path.Builder(prefix).meta(CLASS_NAME).build();
-		Property property = new SimpleProperty(classNamePath, className, true);
+		Property property = new SimpleProperty(classNamePath, kind, true);
 
 		return new PrependSet<Property>(property, properties);
 	}
 
+	public boolean typesafeToSink(Object object, Path prefix, boolean indexed, PropertySink sink)
+	{
+		if (!PropertySinks.encode(chained, object, prefix, indexed, sink))
+		{
+			return false;
+		}
+
+		// entity properties are not ordered so the class name can go last
+		Object kind = typeToKind(object.getClass());
+		Path classNamePath = new Path.Builder(prefix).meta(CLASS_NAME).build();
+		sink.property(classNamePath, kind, true);
+		return true;
+	}
 }
@@ -13,12 +13,27 @@ import com.vercer.engine.persist.conversion.DefaultTypeConverter;
 import com.vercer.engine.persist.conversion.DefaultTypeConverter.BlobToAnything;
 import com.vercer.engine.persist.conversion.DefaultTypeConverter.SerializableToBlob;
 import com.vercer.engine.persist.util.SimpleProperty;
+import com.vercer.engine.persist.util.io.BlobCodec;
 
 
 public class SerializingTranslator implements PropertyTranslator
 {
-	private final BlobToAnything blobToSerializable = new DefaultTypeConverter.BlobToAnything();
-	private final SerializableToBlob serializableToBlob = new DefaultTypeConverter.SerializableToBlob();
+	private final BlobToAnything blobToSerializable;
+	private final SerializableToBlob serializableToBlob;
+
+	public SerializingTranslator()
+	{
+		this(null);
+	}
+
+	/**
+	 * @param codec Encodes values before falling back to Java serialization
+	 */
+	public SerializingTranslator(BlobCodec codec)
+	{
+		blobToSerializable = new DefaultTypeConverter.BlobToAnything(codec);
+		serializableToBlob = new DefaultTypeConverter.SerializableToBlob(codec);
+	}
 
 	public final Object propertiesToTypesafe(Set<Property> properties, Path path, Type type)
 	{
@@ -1,8 +1,17 @@
 package com.vercer.engine.persist.util;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.google.appengine.api.datastore.Blob;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.ShortBlob;
+import com.google.appengine.api.datastore.Text;
 
 public final class Entities
 {
@@ -62,4 +71,278 @@ public final class Entities
 		}
 	}
 
+	/**
+	 * @return A copy of the entity with its own copy of any collection values
+	 *         so later changes to the original collections are not seen
+	 */
+	public static Entity snapshot(Entity entity)
+	{
+		Entity copy = new Entity(entity.getKey());
+		for (Map.Entry<String, Object> property : entity.getProperties().entrySet())
+		{
+			Object value = property.getValue();
+			if (value instanceof Collection<?>)
+			{
+				value = new ArrayList<Object>((Collection<?>) value);
+			}
+
+			if (entity.isUnindexedProperty(property.getKey()))
+			{
+				copy.setUnindexedProperty(property.getKey(), value);
+			}
+			else
+			{
+				copy.setProperty(property.getKey(), value);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * @return true if both entities have the same property names, values and
+	 *         indexing with collection values compared in order
+	 */
+	public static boolean equalProperties(Entity first, Entity second)
+	{
+		Map<String, Object> properties = first.getProperties();
+		if (properties.size() != second.getProperties().size())
+		{
+			return false;
+		}
+
+		for (Map.Entry<String, Object> property : properties.entrySet())
+		{
+			String name = property.getKey();
+			if (!second.hasProperty(name) || first.isUnindexedProperty(name) != second.isUnindexedProperty(name))
+			{
+				return false;
+			}
+
+			if (!equalValues(property.getValue(), second.getProperty(name)))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean equalValues(Object value, Object other)
+	{
+		if (value == null || other == null)
+		{
+			return value == other;
+		}
+		else if (value instanceof Collection<?> && other instanceof Collection<?>)
+		{
+			Collection<?> values = (Collection<?>) value;
+			Collection<?> others = (Collection<?>) other;
+			if (values.size() != others.size())
+			{
+				return false;
+			}
+
+			Iterator<?> iterator = others.iterator();
+			for (Object item : values)
+			{
+				if (!equalValues(item, iterator.next()))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+		else if (isFloatingPoint(value) && isFloatingPoint(other))
+		{
+			// compared as stored like the fingerprint
+			return Double.doubleToLongBits(((Number) value).doubleValue()) ==
+				Double.doubleToLongBits(((Number) other).doubleValue());
+		}
+		else if (isInteger(value) && isInteger(other))
+		{
+			return ((Number) value).longValue() == ((Number) other).longValue();
+		}
+		else
+		{
+			return value.equals(other);
+		}
+	}
+
+	private static boolean isFloatingPoint(Object value)
+	{
+		return value instanceof Double || value instanceof Float;
+	}
+
+	private static boolean isInteger(Object value)
+	{
+		return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+	}
+
+	/**
+	 * @return A 64 bit hash of the property names, values and indexing which
+	 *         is the same for entities with equal properties in any order
+	 */
+	public static long fingerprint(Entity entity)
+	{
+		long result = 0;
+		for (Map.Entry<String, Object> property : entity.getProperties().entrySet())
+		{
+			long hash = hash(FNV_OFFSET, property.getKey());
+			hash = step(hash, entity.isUnindexedProperty(property.getKey()) ? 1 : 0);
+			hash = hash(hash, property.getValue());
+
+			// properties have no order so are combined with a sum
+			result += mix(hash);
+		}
+		return result;
+	}
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private static long step(long hash, long value)
+	{
+		return (hash ^ value) * FNV_PRIME;
+	}
+
+	private static long hash(long hash, String value)
+	{
+		hash = step(hash, value.length());
+		for (int i = 0; i < value.length(); i++)
+		{
+			hash = step(hash, value.charAt(i));
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, byte[] value)
+	{
+		hash = step(hash, value.length);
+		for (byte b : value)
+		{
+			hash = step(hash, b);
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, Object value)
+	{
+		// tag each type so that different values cannot share a hash by accident
+		if (value == null)
+		{
+			return step(hash, 0);
+		}
+		else if (value instanceof String)
+		{
+			return hash(step(hash, 1), (String) value);
+		}
+		else if (value instanceof Text)
+		{
+			return hash(step(hash, 2), ((Text) value).getValue());
+		}
+		else if (value instanceof Blob)
+		{
+			return hash(step(hash, 3), ((Blob) value).getBytes());
+		}
+		else if (value instanceof ShortBlob)
+		{
+			return hash(step(hash, 4), ((ShortBlob) value).getBytes());
+		}
+		else if (value instanceof Collection<?>)
+		{
+			hash = step(step(hash, 5), ((Collection<?>) value).size());
+			for (Object item : (Collection<?>) value)
+			{
+				hash = hash(hash, item);
+			}
+			return hash;
+		}
+		else if (value instanceof Double || value instanceof Float)
+		{
+			// the datastore stores all floating point numbers as doubles
+			return step(step(hash, 6), Double.doubleToLongBits(((Number) value).doubleValue()));
+		}
+		else if (value instanceof Number)
+		{
+			// and all integers as longs
+			return step(step(hash, 7), ((Number) value).longValue());
+		}
+		else if (value instanceof Boolean)
+		{
+			return step(step(hash, 8), ((Boolean) value) ? 1 : 0);
+		}
+		else if (value instanceof Date)
+		{
+			return step(step(hash, 9), ((Date) value).getTime());
+		}
+		else if (value instanceof Key)
+		{
+			return hash(step(hash, 10), KeyFactory.keyToString((Key) value));
+		}
+		else
+		{
+			return step(hash(step(hash, 11), value.getClass().getName()), value.hashCode());
+		}
+	}
+
+	private static long mix(long hash)
+	{
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * @return A rough number of bytes the entity will need when it is sent to the datastore
+	 */
+	public static int estimateSize(Entity entity)
+	{
+		// allow for the encoded key
+		int size = 64;
+		for (Map.Entry<String, Object> property : entity.getProperties().entrySet())
+		{
+			size += property.getKey().length() + estimateSize(property.getValue());
+		}
+		return size;
+	}
+
+	private static int estimateSize(Object value)
+	{
+		if (value instanceof String)
+		{
+			return ((String) value).length();
+		}
+		else if (value instanceof Text)
+		{
+			return ((Text) value).getValue().length();
+		}
+		else if (value instanceof Blob)
+		{
+			return ((Blob) value).getBytes().length;
+		}
+		else if (value instanceof ShortBlob)
+		{
+			return ((ShortBlob) value).getBytes().length;
+		}
+		else if (value instanceof Key)
+		{
+			return 64;
+		}
+		else if (value instanceof Collection<?>)
+		{
+			int size = 0;
+			for (Object item : (Collection<?>) value)
+			{
+				size += estimateSize(item) + 2;
+			}
+			return size;
+		}
+		else
+		{
+			// numbers, dates and other small values
+			return 9;
+		}
+	}
 }
@@ -0,0 +1,84 @@
+package com.vercer.engine.persist.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Tables of the constants of each enum class by name and ordinal which are
+ * built once instead of calling {@link Enum#valueOf(Class, String)} or
+ * {@link Class#getEnumConstants()} which copies the constants every time.
+ */
+public class EnumConstants
+{
+	private static final class Table
+	{
+		private final Enum<?>[] constants;
+		private final Map<String, Enum<?>> names;
+
+		private Table(Class<?> type)
+		{
+			constants = (Enum<?>[]) type.getEnumConstants();
+			names = new HashMap<String, Enum<?>>((int) (constants.length / 0.75f) + 1);
+			for (Enum<?> constant : constants)
+			{
+				names.put(constant.name(), constant);
+			}
+		}
+	}
+
+	// enums hold their class loader so must not be held strongly
+	private static final Map<Class<?>, Table> tables = new MapMaker()
+		.weakKeys()
+		.softValues()
+		.makeMap();
+
+	private static Table table(Class<?> type)
+	{
+		Table table = tables.get(type);
+		if (table == null)
+		{
+			if (!type.isEnum())
+			{
+				throw new IllegalArgumentException(type + " is not an enum");
+			}
+
+			// a race would only build the same table twice
+			table = new Table(type);
+			tables.put(type, table);
+		}
+		return table;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the enum has no constant with the name
+	 */
+	@SuppressWarnings("unchecked")
+	public static <E extends Enum<E>> E valueOf(Class<?> type, String name)
+	{
+		Enum<?> result = table(type).names.get(name);
+		if (result == null)
+		{
+			throw new IllegalArgumentException("No enum constant " + type.getName() + "." + name);
+		}
+		return (E) result;
+	}
+
+	/**
+	 * @return The constant with the ordinal
+	 */
+	@SuppressWarnings("unchecked")
+	public static <E extends Enum<E>> E valueOf(Class<?> type, int ordinal)
+	{
+		return (E) table(type).constants[ordinal];
+	}
+
+	/**
+	 * @return The number of constants declared by the enum
+	 */
+	public static int size(Class<?> type)
+	{
+		return table(type).constants.length;
+	}
+}
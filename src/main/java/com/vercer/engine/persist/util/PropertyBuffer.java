@@ -0,0 +1,119 @@
+package com.vercer.engine.persist.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.vercer.engine.persist.Path;
+import com.vercer.engine.persist.Property;
+import com.vercer.engine.persist.PropertySink;
+
+/**
+ * Holds encoded properties in parallel arrays until the entity they belong
+ * to can be created. Also a read only set of the properties for translators
+ * that still work with sets.
+ */
+public class PropertyBuffer extends AbstractSet<Property> implements PropertySink
+{
+	private Path[] paths;
+	private Object[] values;
+	private boolean[] indexes;
+	private int size;
+
+	public PropertyBuffer()
+	{
+		this(8);
+	}
+
+	public PropertyBuffer(int capacity)
+	{
+		paths = new Path[capacity];
+		values = new Object[capacity];
+		indexes = new boolean[capacity];
+	}
+
+	public void property(Path path, Object value, boolean indexed)
+	{
+		if (size == paths.length)
+		{
+			int capacity = size * 2 + 1;
+			paths = Arrays.copyOf(paths, capacity);
+			values = Arrays.copyOf(values, capacity);
+			indexes = Arrays.copyOf(indexes, capacity);
+		}
+		paths[size] = path;
+		values[size] = value;
+		indexes[size] = indexed;
+		size++;
+	}
+
+	public Path getPath(int index)
+	{
+		return paths[index];
+	}
+
+	public Object getValue(int index)
+	{
+		return values[index];
+	}
+
+	public boolean isIndexed(int index)
+	{
+		return indexes[index];
+	}
+
+	/**
+	 * Discard the properties added after the size was the given mark
+	 */
+	public void truncate(int mark)
+	{
+		Arrays.fill(paths, mark, size, null);
+		Arrays.fill(values, mark, size, null);
+		size = mark;
+	}
+
+	public void transferTo(PropertySink sink)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			sink.property(paths[i], values[i], indexes[i]);
+		}
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public Iterator<Property> iterator()
+	{
+		return new Iterator<Property>()
+		{
+			int index;
+
+			public boolean hasNext()
+			{
+				return index < size;
+			}
+
+			public Property next()
+			{
+				if (!hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				Property property = new SimpleProperty(paths[index], values[index], indexes[index]);
+				index++;
+				return property;
+			}
+
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -36,7 +36,7 @@ public final class PropertyMapToSet extends AbstractSet<Property>
 			public Property next()
 			{
 				Entry<String, Object> next = iterator.next();
-				return new SimpleProperty(new Path(next.getKey()), next.getValue(), indexed);
+				return new SimpleProperty(Path.intern(next.getKey()), next.getValue(), indexed);
 			}
 
 			public void remove()
@@ -1,10 +1,16 @@
 package com.vercer.engine.persist.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.SortedSet;
+
+import com.google.common.base.Predicate;
 
 import com.vercer.engine.persist.Path;
 import com.vercer.engine.persist.Property;
@@ -21,6 +27,11 @@ public class PropertySets
 			// optimised case for our own implementation
 			return (T) ((SinglePropertySet) properties).getValue();
 		}
+		else if (properties instanceof RowPropertySet)
+		{
+			// read the value from its column without creating a property
+			return (T) ((RowPropertySet) properties).getValue(0);
+		}
 		else
 		{
 			Iterator<Property> iterator = properties.iterator();
@@ -60,17 +71,29 @@ public class PropertySets
 	
 	public static Collection<PrefixPropertySet> prefixPropertySets(Set<Property> properties, Path prefix)
 	{
+		// use the sorted array or row directly when we created it
+		Set<Property> sorted;
+		if (properties instanceof ArraySortedSet<?> || properties instanceof RowPropertySet)
+		{
+			sorted = properties;
+		}
+		else
+		{
+			Property[] array = properties.toArray(new Property[properties.size()]);
+			sorted = new ArraySortedSet<Property>(array, 0, array.length, pathComparator);
+		}
+
 		Collection<PrefixPropertySet> result = new ArrayList<PrefixPropertySet>();
-		Property[] array = (Property[]) properties.toArray(new Property[properties.size()]);
 		Part part = null;
 		int start = 0;
-		for (int i = 0; i < array.length; i++)
+		int size = sorted.size();
+		for (int i = 0; i < size; i++)
 		{
-			Part firstPartAfterPrefix = array[i].getPath().firstPartAfterPrefix(prefix);
+			Part firstPartAfterPrefix = path(sorted, i).firstPartAfterPrefix(prefix);
 			if (part != null && !firstPartAfterPrefix.equals(part))
 			{
 				// if the first part has changed then add a new set
-				PrefixPropertySet ppf = createPrefixSubset(prefix, array, part, start, i);
+				PrefixPropertySet ppf = createPrefixSubset(prefix, sorted, part, start, i);
 				result.add(ppf);
 				start = i; 
 			}
@@ -78,24 +101,121 @@ public class PropertySets
 		}
 		
 		// add the last set 
-		if (array.length > 0)
+		if (size > 0)
 		{
-			PrefixPropertySet ppf = createPrefixSubset(prefix, array, part, start, array.length);
+			PrefixPropertySet ppf = createPrefixSubset(prefix, sorted, part, start, size);
 			result.add(ppf);
 		}
 		return result;
 	}
 
-	private static PrefixPropertySet createPrefixSubset(Path prefix, Property[] array, Part part,
+	private static PrefixPropertySet createPrefixSubset(Path prefix, Set<Property> sorted, Part part,
 			int start, int i)
 	{
-		Set<Property> subset = new ArraySortedSet<Property>(array, start, i - start);
+		Set<Property> subset;
+		if (sorted instanceof RowPropertySet)
+		{
+			subset = ((RowPropertySet) sorted).range(start, i);
+		}
+		else
+		{
+			subset = ((ArraySortedSet<Property>) sorted).range(start, i);
+		}
 		PrefixPropertySet ppf = new PrefixPropertySet(Path.builder(prefix).append(part).build(), subset);
 		return ppf;
 	}
 
+	private static Path path(Set<Property> sorted, int index)
+	{
+		if (sorted instanceof RowPropertySet)
+		{
+			return ((RowPropertySet) sorted).getPath(index);
+		}
+		else
+		{
+			return ((ArraySortedSet<Property>) sorted).get(index).getPath();
+		}
+	}
+
+	/**
+	 * @return The index of the property with the path in a set sorted by path
+	 *         or a negative number if there is none
+	 */
+	public static int indexOf(ArraySortedSet<Property> sorted, Path path)
+	{
+		int low = 0;
+		int high = sorted.size() - 1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			int comparison = sorted.get(middle).getPath().compareTo(path);
+			if (comparison < 0)
+			{
+				low = middle + 1;
+			}
+			else if (comparison > 0)
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return A copy of the sorted set without the property at the index
+	 */
+	public static ArraySortedSet<Property> remove(ArraySortedSet<Property> sorted, int index)
+	{
+		Property[] array = new Property[sorted.size() - 1];
+		int size = 0;
+		for (int i = 0; i < sorted.size(); i++)
+		{
+			if (i != index)
+			{
+				array[size++] = sorted.get(i);
+			}
+		}
+		return new ArraySortedSet<Property>(array, 0, size, pathComparator);
+	}
+
 	public static Set<Property> create(Map<String, Object> properties, boolean indexed)
 	{
 		return new PropertyMapToSet(properties, indexed);
 	}
+
+	/**
+	 * Creates a sorted view of entity properties once so that it can be
+	 * divided into ranges by every translator without copying again
+	 * 
+	 * @param filter Excludes properties or null to include all
+	 */
+	public static SortedSet<Property> createSorted(Map<String, Object> properties, boolean indexed, Predicate<Property> filter)
+	{
+		Property[] array = new Property[properties.size()];
+		int size = 0;
+		for (Entry<String, Object> entry : properties.entrySet())
+		{
+			Property property = new SimpleProperty(Path.intern(entry.getKey()), entry.getValue(), indexed);
+			if (filter == null || filter.apply(property))
+			{
+				array[size++] = property;
+			}
+		}
+
+		// paths are unique in an entity so only the names are compared
+		Arrays.sort(array, 0, size, pathComparator);
+		return new ArraySortedSet<Property>(array, 0, size, pathComparator);
+	}
+
+	static final Comparator<Property> pathComparator = new Comparator<Property>()
+	{
+		public int compare(Property o1, Property o2)
+		{
+			return o1.getPath().compareTo(o2.getPath());
+		}
+	};
 }
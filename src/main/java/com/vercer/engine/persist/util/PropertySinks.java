@@ -0,0 +1,57 @@
+package com.vercer.engine.persist.util;
+
+import java.util.Set;
+
+import com.vercer.engine.persist.Path;
+import com.vercer.engine.persist.Property;
+import com.vercer.engine.persist.PropertySink;
+import com.vercer.engine.persist.PropertyTranslator;
+import com.vercer.engine.persist.StreamingPropertyTranslator;
+
+public class PropertySinks
+{
+	/**
+	 * Encode the instance into the sink using the set based method if the
+	 * translator cannot stream
+	 *
+	 * @return false if the translator could not handle the instance
+	 */
+	public static boolean encode(PropertyTranslator translator, Object instance, Path path, boolean indexed, PropertySink sink)
+	{
+		if (translator instanceof StreamingPropertyTranslator)
+		{
+			return ((StreamingPropertyTranslator) translator).typesafeToSink(instance, path, indexed, sink);
+		}
+		else
+		{
+			Set<Property> properties = translator.typesafeToProperties(instance, path, indexed);
+			if (properties == null)
+			{
+				return false;
+			}
+			for (Property property : properties)
+			{
+				sink.property(property.getPath(), property.getValue(), property.isIndexed());
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Implements the set based method for a streaming translator
+	 *
+	 * @return The properties or null if the instance could not be handled
+	 */
+	public static Set<Property> toProperties(StreamingPropertyTranslator translator, Object instance, Path path, boolean indexed)
+	{
+		PropertyBuffer buffer = new PropertyBuffer();
+		if (translator.typesafeToSink(instance, path, indexed, buffer))
+		{
+			return buffer;
+		}
+		else
+		{
+			return null;
+		}
+	}
+}
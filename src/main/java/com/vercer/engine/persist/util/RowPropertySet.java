@@ -0,0 +1,206 @@
+package com.vercer.engine.persist.util;
+
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.UnmodifiableIterator;
+import com.vercer.engine.persist.Path;
+import com.vercer.engine.persist.Property;
+
+/**
+ * A sorted view of one row of values that are stored in columns, one list
+ * per path, so each item of a list can be decoded without copying its values
+ * into properties. Properties are only created if the view is iterated.
+ */
+public final class RowPropertySet extends AbstractSet<Property> implements SortedSet<Property>
+{
+	private final Path[] paths;
+	private final List<?>[] columns;
+	private final int row;
+	private final boolean indexed;
+
+	// positions of the columns that have a value in this row in path order
+	private final int[] cells;
+	private final int offset;
+	private final int length;
+
+	/**
+	 * @param paths The path of each column sorted by path
+	 * @param cells The columns with a value in this row which can be shared
+	 *            between rows because it is never changed
+	 */
+	public RowPropertySet(Path[] paths, List<?>[] columns, int row, int[] cells, int length, boolean indexed)
+	{
+		this(paths, columns, row, indexed, cells, 0, length);
+	}
+
+	private RowPropertySet(Path[] paths, List<?>[] columns, int row, boolean indexed, int[] cells, int offset, int length)
+	{
+		this.paths = paths;
+		this.columns = columns;
+		this.row = row;
+		this.indexed = indexed;
+		this.cells = cells;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	@Override
+	public int size()
+	{
+		return length;
+	}
+
+	public Path getPath(int index)
+	{
+		Preconditions.checkElementIndex(index, length);
+		return paths[cells[offset + index]];
+	}
+
+	public Object getValue(int index)
+	{
+		Preconditions.checkElementIndex(index, length);
+		return columns[cells[offset + index]].get(row);
+	}
+
+	public Property get(int index)
+	{
+		return new SimpleProperty(getPath(index), getValue(index), indexed);
+	}
+
+	/**
+	 * @return A view of the values from index inclusive to index exclusive
+	 */
+	public RowPropertySet range(int from, int to)
+	{
+		Preconditions.checkPositionIndexes(from, to, length);
+		return new RowPropertySet(paths, columns, row, indexed, cells, offset + from, to - from);
+	}
+
+	/**
+	 * @return The index of the value with the path or a negative number if there is none
+	 */
+	public int indexOf(Path path)
+	{
+		int position = position(path);
+		if (position < length && getPath(position).equals(path))
+		{
+			return position;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return A view of the row without the value at the index
+	 */
+	public RowPropertySet remove(int index)
+	{
+		Preconditions.checkElementIndex(index, length);
+		int[] remaining = new int[length - 1];
+		System.arraycopy(cells, offset, remaining, 0, index);
+		System.arraycopy(cells, offset + index + 1, remaining, index, length - index - 1);
+		return new RowPropertySet(paths, columns, row, indexed, remaining, 0, remaining.length);
+	}
+
+	// the index at which the path is or would be inserted
+	private int position(Path path)
+	{
+		int low = 0;
+		int high = length - 1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			int comparison = getPath(middle).compareTo(path);
+			if (comparison < 0)
+			{
+				low = middle + 1;
+			}
+			else if (comparison > 0)
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return middle;
+			}
+		}
+		return low;
+	}
+
+	@Override
+	public boolean contains(Object o)
+	{
+		if (o instanceof Property == false)
+		{
+			return false;
+		}
+		int index = indexOf(((Property) o).getPath());
+		return index >= 0 && get(index).equals(o);
+	}
+
+	@Override
+	public Iterator<Property> iterator()
+	{
+		return new UnmodifiableIterator<Property>()
+		{
+			int i = 0;
+
+			public boolean hasNext()
+			{
+				return i < length;
+			}
+
+			public Property next()
+			{
+				if (!hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				return get(i++);
+			}
+		};
+	}
+
+	public Comparator<? super Property> comparator()
+	{
+		return PropertySets.pathComparator;
+	}
+
+	public Property first()
+	{
+		if (length == 0)
+		{
+			throw new NoSuchElementException();
+		}
+		return get(0);
+	}
+
+	public Property last()
+	{
+		if (length == 0)
+		{
+			throw new NoSuchElementException();
+		}
+		return get(length - 1);
+	}
+
+	public SortedSet<Property> headSet(Property toElement)
+	{
+		return range(0, position(toElement.getPath()));
+	}
+
+	public SortedSet<Property> subSet(Property fromElement, Property toElement)
+	{
+		return range(position(fromElement.getPath()), position(toElement.getPath()));
+	}
+
+	public SortedSet<Property> tailSet(Property fromElement)
+	{
+		return range(position(fromElement.getPath()), length);
+	}
+}
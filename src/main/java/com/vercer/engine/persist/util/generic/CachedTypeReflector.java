@@ -0,0 +1,326 @@
+package com.vercer.engine.persist.util.generic;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.GenericDeclaration;
+import java.lang.reflect.Member;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Remembers the results of the generic hierarchy walks done by
+ * {@link GenericTypeReflector} which are needed for every value encoded or
+ * decoded. Results are kept per class loader so that they are released
+ * with the classes of a redeployed application and each table is bounded.
+ * Types made from the classes of more than one loader are not cached.
+ * Equal types are interned in the same tables so they are released too.
+ */
+public class CachedTypeReflector
+{
+	private static final int MAXIMUM_ENTRIES = 2000;
+
+	// marks a cached null result
+	private static final Object NONE = new Object();
+
+	// marks types made from classes of more than one class loader
+	private static final Object MIXED = new Object();
+
+	// classes hold their class loader so the values must be collectable too
+	private static final Map<ClassLoader, Tables> loaderTables = new MapMaker()
+		.weakKeys()
+		.softValues()
+		.makeMap();
+
+	// for types loaded by the bootstrap class loader
+	private static final Tables systemTables = new Tables();
+
+	private static final class Tables
+	{
+		// keyed by the search class then the type
+		private final ConcurrentMap<Type, ConcurrentMap<Type, Object>> superTypes = new ConcurrentHashMap<Type, ConcurrentMap<Type,Object>>();
+		private final ConcurrentMap<Type, ConcurrentMap<Type, Boolean>> assignable = new ConcurrentHashMap<Type, ConcurrentMap<Type,Boolean>>();
+		private final ConcurrentMap<Type, Object> components = new ConcurrentHashMap<Type, Object>();
+		private final ConcurrentMap<Type, Type> canonical = new ConcurrentHashMap<Type, Type>();
+	}
+
+	/**
+	 * @return The tables of the one class loader used by every class in the
+	 *         types or null if results must not be cached
+	 */
+	private static Tables tables(Type type, Type other)
+	{
+		Object found = loader(other, loader(type, null));
+		if (found == null)
+		{
+			return systemTables;
+		}
+		else if (found == MIXED)
+		{
+			// a result kept with either loader could outlive the other
+			return null;
+		}
+
+		ClassLoader loader = (ClassLoader) found;
+		Tables tables = loaderTables.get(loader);
+		if (tables == null)
+		{
+			// a race would only lose a few cached results
+			tables = new Tables();
+			loaderTables.put(loader, tables);
+		}
+		return tables;
+	}
+
+	/**
+	 * @return The found loader, the loader of the type if none was found yet or MIXED
+	 */
+	private static Object loader(Type type, Object found)
+	{
+		if (found == MIXED)
+		{
+			return MIXED;
+		}
+		else if (type instanceof Class<?>)
+		{
+			// bootstrap classes are never unloaded so can be ignored
+			ClassLoader loader = ((Class<?>) type).getClassLoader();
+			if (loader == null || loader == found)
+			{
+				return found;
+			}
+			return found == null ? loader : MIXED;
+		}
+		else if (type instanceof ParameterizedType)
+		{
+			ParameterizedType parameterized = (ParameterizedType) type;
+			found = loader(parameterized.getRawType(), found);
+			if (parameterized.getOwnerType() != null)
+			{
+				found = loader(parameterized.getOwnerType(), found);
+			}
+			for (Type argument : parameterized.getActualTypeArguments())
+			{
+				found = loader(argument, found);
+			}
+			return found;
+		}
+		else if (type instanceof GenericArrayType)
+		{
+			return loader(((GenericArrayType) type).getGenericComponentType(), found);
+		}
+		else if (type instanceof WildcardType)
+		{
+			WildcardType wildcard = (WildcardType) type;
+			for (Type bound : wildcard.getUpperBounds())
+			{
+				found = loader(bound, found);
+			}
+			for (Type bound : wildcard.getLowerBounds())
+			{
+				found = loader(bound, found);
+			}
+			return found;
+		}
+		else if (type instanceof TypeVariable<?>)
+		{
+			// bounds can refer back to the variable so only use where it is declared
+			GenericDeclaration declaration = ((TypeVariable<?>) type).getGenericDeclaration();
+			if (declaration instanceof Class<?>)
+			{
+				return loader((Class<?>) declaration, found);
+			}
+			else if (declaration instanceof Member)
+			{
+				return loader(((Member) declaration).getDeclaringClass(), found);
+			}
+		}
+		return found;
+	}
+
+	private static <K, V> ConcurrentMap<K, V> table(ConcurrentMap<Type, ConcurrentMap<K, V>> tables, Type key)
+	{
+		ConcurrentMap<K, V> table = tables.get(key);
+		if (table == null)
+		{
+			table = new ConcurrentHashMap<K, V>();
+			ConcurrentMap<K, V> existing = tables.putIfAbsent(key, table);
+			if (existing != null)
+			{
+				table = existing;
+			}
+		}
+		return table;
+	}
+
+	private static <K, V> void put(Map<K, V> table, K key, V value)
+	{
+		// stop unusual types from growing the cache without limit
+		if (table.size() < MAXIMUM_ENTRIES)
+		{
+			table.put(key, value);
+		}
+	}
+
+	/**
+	 * Keeps a single instance of equal types so that caches keyed by type use
+	 * the same key for every field of the same type
+	 * 
+	 * @return An equal type that is shared or the type itself if it is a
+	 *         class or cannot be shared
+	 */
+	public static Type intern(Type type)
+	{
+		// classes are already canonical
+		if (type == null || type instanceof Class<?>)
+		{
+			return type;
+		}
+		return intern(tables(type, null), type);
+	}
+
+	private static Type intern(Tables tables, Type type)
+	{
+		if (tables == null || type == null || type instanceof Class<?>)
+		{
+			return type;
+		}
+
+		Type canonical = tables.canonical.get(type);
+		if (canonical == null)
+		{
+			if (tables.canonical.size() < MAXIMUM_ENTRIES)
+			{
+				canonical = tables.canonical.putIfAbsent(type, type);
+			}
+			if (canonical == null)
+			{
+				canonical = type;
+			}
+		}
+		return canonical;
+	}
+
+	/**
+	 * Avoids any lookup for the common case of classes and parameterized types
+	 */
+	public static Class<?> erase(Type type)
+	{
+		if (type instanceof Class<?>)
+		{
+			return (Class<?>) type;
+		}
+		else if (type instanceof ParameterizedType)
+		{
+			return (Class<?>) ((ParameterizedType) type).getRawType();
+		}
+		else
+		{
+			return GenericTypeReflector.erase(type);
+		}
+	}
+
+	/**
+	 * @see GenericTypeReflector#getExactSuperType(Type, Class)
+	 */
+	public static Type getExactSuperType(Type type, Class<?> searchClass)
+	{
+		if (type == searchClass)
+		{
+			return type;
+		}
+
+		Tables tables = tables(type, searchClass);
+		if (tables == null)
+		{
+			return GenericTypeReflector.getExactSuperType(type, searchClass);
+		}
+
+		ConcurrentMap<Type, Object> table = table(tables.superTypes, searchClass);
+		Object result = table.get(type);
+		if (result == null)
+		{
+			result = intern(tables, GenericTypeReflector.getExactSuperType(type, searchClass));
+			put(table, type, result == null ? NONE : result);
+		}
+		return result == NONE ? null : (Type) result;
+	}
+
+	/**
+	 * @see GenericTypeReflector#isSuperType(Type, Type)
+	 */
+	public static boolean isSuperType(Type superType, Type subType)
+	{
+		if (superType == subType)
+		{
+			return true;
+		}
+
+		Tables tables = tables(subType, superType);
+		if (tables == null)
+		{
+			return GenericTypeReflector.isSuperType(superType, subType);
+		}
+
+		ConcurrentMap<Type, Boolean> table = table(tables.assignable, superType);
+		Boolean result = table.get(subType);
+		if (result == null)
+		{
+			result = GenericTypeReflector.isSuperType(superType, subType);
+			put(table, subType, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return The type arguments of the super type as seen from the given type
+	 *         e.g. String and Integer for Map from HashMap&lt;String, Integer&gt;
+	 */
+	public static Type[] getTypeArguments(Type type, Class<?> searchClass)
+	{
+		Type exact = getExactSuperType(type, searchClass);
+		return ((ParameterizedType) exact).getActualTypeArguments();
+	}
+
+	/**
+	 * @return The item type of an array or collection type or null if the
+	 *         type is neither
+	 */
+	public static Type getComponentType(Type type)
+	{
+		Tables tables = tables(type, null);
+		Object result = tables == null ? null : tables.components.get(type);
+		if (result == null)
+		{
+			Type component = null;
+			Class<?> erased = erase(type);
+			if (type instanceof GenericArrayType)
+			{
+				// a generic array like Provider<Twig>[]
+				component = ((GenericArrayType) type).getGenericComponentType();
+			}
+			else if (erased.isArray())
+			{
+				// a normal array like Twig[]
+				component = erased.getComponentType();
+			}
+			else if (Collection.class.isAssignableFrom(erased))
+			{
+				// some type of collection like Set<Twig>
+				component = getTypeArguments(type, Collection.class)[0];
+			}
+			result = component == null ? NONE : intern(tables, component);
+			if (tables != null)
+			{
+				put(tables.components, type, result);
+			}
+		}
+		return result == NONE ? null : (Type) result;
+	}
+}
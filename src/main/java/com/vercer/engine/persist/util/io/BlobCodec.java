@@ -0,0 +1,21 @@
+package com.vercer.engine.persist.util.io;
+
+/**
+ * Encodes values to the bytes of a blob property. Values a codec does not
+ * support are stored using Java serialization instead so a codec must be
+ * able to recognise its own output.
+ */
+public interface BlobCodec
+{
+	/**
+	 * @return The encoded value or null if the value is not supported
+	 */
+	byte[] encode(Object value);
+
+	/**
+	 * @return true if the bytes were created by this codec
+	 */
+	boolean isEncoded(byte[] bytes);
+
+	Object decode(byte[] bytes);
+}
@@ -0,0 +1,821 @@
+package com.vercer.engine.persist.util.io;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A tagged binary format for common values which is much smaller and faster
+ * than Java serialization. Supports primitive wrappers, strings, dates, byte,
+ * int, long and double arrays, the common collection and map classes and
+ * classes registered with an id.
+ *
+ * Registered classes must have a no argument constructor. Their field names
+ * are written once per blob so fields can be added or removed. Registered
+ * enums are stored by name. A value that is used more than once is written
+ * the first time and then as a reference so shared and cyclic values keep
+ * their identity. Very deep graphs are left to Java serialization.
+ */
+public class CompactBlobCodec implements BlobCodec
+{
+	// java serialization starts with 0xACED
+	private static final byte MAGIC = 0x54;
+	private static final byte VERSION = 1;
+
+	private static final int MAXIMUM_DEPTH = 64;
+	private static final int MAXIMUM_RETAINED = 64 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte NULL = 0;
+	private static final byte TRUE = 1;
+	private static final byte FALSE = 2;
+	private static final byte BYTE = 3;
+	private static final byte SHORT = 4;
+	private static final byte CHARACTER = 5;
+	private static final byte INTEGER = 6;
+	private static final byte LONG = 7;
+	private static final byte FLOAT = 8;
+	private static final byte DOUBLE = 9;
+	private static final byte STRING = 10;
+	private static final byte DATE = 11;
+	private static final byte BYTES = 12;
+	private static final byte INTS = 13;
+	private static final byte LONGS = 14;
+	private static final byte DOUBLES = 15;
+	private static final byte ARRAY_LIST = 16;
+	private static final byte LINKED_LIST = 17;
+	private static final byte HASH_SET = 18;
+	private static final byte LINKED_HASH_SET = 19;
+	private static final byte TREE_SET = 20;
+	private static final byte HASH_MAP = 21;
+	private static final byte LINKED_HASH_MAP = 22;
+	private static final byte TREE_MAP = 23;
+	private static final byte OBJECT = 24;
+	private static final byte ENUM = 25;
+	private static final byte REFERENCE = 26;
+
+	// reused by each thread and replaced when it grows too large
+	private static final ThreadLocal<Output> outputs = new ThreadLocal<Output>()
+	{
+		@Override
+		protected Output initialValue()
+		{
+			return new Output();
+		}
+	};
+
+	private final ConcurrentMap<Class<?>, Integer> ids = new ConcurrentHashMap<Class<?>, Integer>();
+	private final ConcurrentMap<Integer, Class<?>> types = new ConcurrentHashMap<Integer, Class<?>>();
+	private final ConcurrentMap<Class<?>, Constructor<?>> constructors = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+	private final ConcurrentMap<Class<?>, Field[]> fields = new ConcurrentHashMap<Class<?>, Field[]>();
+
+	/**
+	 * Registers a class or enum whose instances can be encoded. The id is
+	 * stored instead of the class name so must never change.
+	 *
+	 * @return This codec for chaining
+	 */
+	public synchronized CompactBlobCodec register(int id, Class<?> type)
+	{
+		if (types.containsKey(id) && types.get(id) != type)
+		{
+			throw new IllegalArgumentException("Id " + id + " already used by " + types.get(id));
+		}
+		if (!type.isEnum())
+		{
+			try
+			{
+				Constructor<?> constructor = type.getDeclaredConstructor();
+				constructor.setAccessible(true);
+				constructors.put(type, constructor);
+			}
+			catch (NoSuchMethodException e)
+			{
+				throw new IllegalArgumentException("No default constructor for " + type);
+			}
+		}
+		types.put(id, type);
+		ids.put(type, id);
+		return this;
+	}
+
+	public boolean isEncoded(byte[] bytes)
+	{
+		return bytes.length >= 2 && bytes[0] == MAGIC && bytes[1] == VERSION;
+	}
+
+	public byte[] encode(Object value)
+	{
+		Output output = outputs.get();
+		output.reset();
+		try
+		{
+			output.write(MAGIC);
+			output.write(VERSION);
+			if (!write(output, value, 0))
+			{
+				return null;
+			}
+			return output.toByteArray();
+		}
+		finally
+		{
+			// do not hold on to the encoded values
+			output.written.clear();
+			if (output.bytes.length > MAXIMUM_RETAINED)
+			{
+				outputs.remove();
+			}
+		}
+	}
+
+	public Object decode(byte[] bytes)
+	{
+		if (!isEncoded(bytes))
+		{
+			throw new IllegalArgumentException("Not a compact blob");
+		}
+		Input input = new Input(bytes, 2);
+		return read(input);
+	}
+
+	private boolean write(Output output, Object value, int depth)
+	{
+		if (depth > MAXIMUM_DEPTH)
+		{
+			return false;
+		}
+
+		if (value == null)
+		{
+			output.write(NULL);
+			return true;
+		}
+
+		// values that can be changed must keep their identity
+		if (!isImmutable(value) && output.writeReference(value))
+		{
+			return true;
+		}
+
+		Class<?> type = value.getClass();
+		if (type == String.class)
+		{
+			output.write(STRING);
+			output.writeString((String) value);
+		}
+		else if (type == Integer.class)
+		{
+			output.write(INTEGER);
+			output.writeVarint(zigzag((Integer) value));
+		}
+		else if (type == Long.class)
+		{
+			output.write(LONG);
+			output.writeVarint(zigzag((Long) value));
+		}
+		else if (type == Boolean.class)
+		{
+			output.write((Boolean) value ? TRUE : FALSE);
+		}
+		else if (type == Double.class)
+		{
+			output.write(DOUBLE);
+			output.writeLong(Double.doubleToRawLongBits((Double) value));
+		}
+		else if (type == Float.class)
+		{
+			output.write(FLOAT);
+			output.writeVarint(Float.floatToRawIntBits((Float) value) & 0xFFFFFFFFL);
+		}
+		else if (type == Short.class)
+		{
+			output.write(SHORT);
+			output.writeVarint(zigzag((Short) value));
+		}
+		else if (type == Byte.class)
+		{
+			output.write(BYTE);
+			output.write((Byte) value);
+		}
+		else if (type == Character.class)
+		{
+			output.write(CHARACTER);
+			output.writeVarint((Character) value);
+		}
+		else if (type == Date.class)
+		{
+			output.write(DATE);
+			output.writeVarint(zigzag(((Date) value).getTime()));
+		}
+		else if (type == byte[].class)
+		{
+			byte[] bytes = (byte[]) value;
+			output.write(BYTES);
+			output.writeVarint(bytes.length);
+			output.write(bytes, 0, bytes.length);
+		}
+		else if (type == int[].class)
+		{
+			int[] ints = (int[]) value;
+			output.write(INTS);
+			output.writeVarint(ints.length);
+			for (int i : ints)
+			{
+				output.writeVarint(zigzag(i));
+			}
+		}
+		else if (type == long[].class)
+		{
+			long[] longs = (long[]) value;
+			output.write(LONGS);
+			output.writeVarint(longs.length);
+			for (long l : longs)
+			{
+				output.writeVarint(zigzag(l));
+			}
+		}
+		else if (type == double[].class)
+		{
+			double[] doubles = (double[]) value;
+			output.write(DOUBLES);
+			output.writeVarint(doubles.length);
+			for (double d : doubles)
+			{
+				output.writeLong(Double.doubleToRawLongBits(d));
+			}
+		}
+		else if (type == ArrayList.class)
+		{
+			return writeItems(output, ARRAY_LIST, (Collection<?>) value, depth);
+		}
+		else if (type == LinkedList.class)
+		{
+			return writeItems(output, LINKED_LIST, (Collection<?>) value, depth);
+		}
+		else if (type == HashSet.class)
+		{
+			return writeItems(output, HASH_SET, (Collection<?>) value, depth);
+		}
+		else if (type == LinkedHashSet.class)
+		{
+			return writeItems(output, LINKED_HASH_SET, (Collection<?>) value, depth);
+		}
+		else if (type == TreeSet.class && ((TreeSet<?>) value).comparator() == null)
+		{
+			return writeItems(output, TREE_SET, (Collection<?>) value, depth);
+		}
+		else if (type == HashMap.class)
+		{
+			return writeEntries(output, HASH_MAP, (Map<?, ?>) value, depth);
+		}
+		else if (type == LinkedHashMap.class)
+		{
+			return writeEntries(output, LINKED_HASH_MAP, (Map<?, ?>) value, depth);
+		}
+		else if (type == TreeMap.class && ((TreeMap<?, ?>) value).comparator() == null)
+		{
+			return writeEntries(output, TREE_MAP, (Map<?, ?>) value, depth);
+		}
+		else if (value instanceof Enum<?>)
+		{
+			Integer id = ids.get(((Enum<?>) value).getDeclaringClass());
+			if (id == null)
+			{
+				return false;
+			}
+			output.write(ENUM);
+			output.writeVarint(id);
+			output.writeString(((Enum<?>) value).name());
+		}
+		else
+		{
+			Integer id = ids.get(type);
+			if (id == null)
+			{
+				return false;
+			}
+			return writeObject(output, id, value, depth);
+		}
+		return true;
+	}
+
+	private static boolean isImmutable(Object value)
+	{
+		Class<?> type = value.getClass();
+		return type == String.class || type == Integer.class || type == Long.class ||
+				type == Boolean.class || type == Double.class || type == Float.class ||
+				type == Short.class || type == Byte.class || type == Character.class ||
+				value instanceof Enum<?>;
+	}
+
+	private boolean writeItems(Output output, byte tag, Collection<?> items, int depth)
+	{
+		output.write(tag);
+		output.writeVarint(items.size());
+		for (Object item : items)
+		{
+			if (!write(output, item, depth + 1))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean writeEntries(Output output, byte tag, Map<?, ?> map, int depth)
+	{
+		output.write(tag);
+		output.writeVarint(map.size());
+		for (Map.Entry<?, ?> entry : map.entrySet())
+		{
+			if (!write(output, entry.getKey(), depth + 1) || !write(output, entry.getValue(), depth + 1))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean writeObject(Output output, int id, Object value, int depth)
+	{
+		Class<?> type = value.getClass();
+		Field[] fields = fields(type);
+
+		output.write(OBJECT);
+		output.writeVarint(id);
+		if (output.described.put(type, Boolean.TRUE) == null)
+		{
+			// field names are written the first time a class is used
+			output.writeVarint(fields.length);
+			for (Field field : fields)
+			{
+				output.writeString(field.getName());
+			}
+		}
+
+		for (Field field : fields)
+		{
+			try
+			{
+				if (!write(output, field.get(value), depth + 1))
+				{
+					return false;
+				}
+			}
+			catch (IllegalAccessException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+		return true;
+	}
+
+	private Field[] fields(Class<?> type)
+	{
+		Field[] result = fields.get(type);
+		if (result == null)
+		{
+			List<Field> list = new ArrayList<Field>();
+			for (Class<?> current = type; current != Object.class; current = current.getSuperclass())
+			{
+				for (Field field : current.getDeclaredFields())
+				{
+					int modifiers = field.getModifiers();
+					if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers))
+					{
+						field.setAccessible(true);
+						list.add(field);
+					}
+				}
+			}
+
+			// declared order is not guaranteed
+			result = list.toArray(new Field[list.size()]);
+			Arrays.sort(result, fieldComparator);
+			fields.put(type, result);
+		}
+		return result;
+	}
+
+	private static final Comparator<Field> fieldComparator = new Comparator<Field>()
+	{
+		public int compare(Field o1, Field o2)
+		{
+			int comparison = o1.getName().compareTo(o2.getName());
+			if (comparison == 0)
+			{
+				// a shadowed field
+				comparison = o1.getDeclaringClass().getName().compareTo(o2.getDeclaringClass().getName());
+			}
+			return comparison;
+		}
+	};
+
+	private Object read(Input input)
+	{
+		byte tag = input.read();
+		switch (tag)
+		{
+		case NULL:
+			return null;
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case BYTE:
+			return input.read();
+		case SHORT:
+			return (short) unzigzag(input.readVarint());
+		case CHARACTER:
+			return (char) input.readVarint();
+		case INTEGER:
+			return (int) unzigzag(input.readVarint());
+		case LONG:
+			return unzigzag(input.readVarint());
+		case FLOAT:
+			return Float.intBitsToFloat((int) input.readVarint());
+		case DOUBLE:
+			return Double.longBitsToDouble(input.readLong());
+		case STRING:
+			return input.readString();
+		case DATE:
+			return input.created(new Date(unzigzag(input.readVarint())));
+		case BYTES:
+		{
+			byte[] bytes = input.created(new byte[(int) input.readVarint()]);
+			input.read(bytes);
+			return bytes;
+		}
+		case INTS:
+		{
+			int[] ints = input.created(new int[(int) input.readVarint()]);
+			for (int i = 0; i < ints.length; i++)
+			{
+				ints[i] = (int) unzigzag(input.readVarint());
+			}
+			return ints;
+		}
+		case LONGS:
+		{
+			long[] longs = input.created(new long[(int) input.readVarint()]);
+			for (int i = 0; i < longs.length; i++)
+			{
+				longs[i] = unzigzag(input.readVarint());
+			}
+			return longs;
+		}
+		case DOUBLES:
+		{
+			double[] doubles = input.created(new double[(int) input.readVarint()]);
+			for (int i = 0; i < doubles.length; i++)
+			{
+				doubles[i] = Double.longBitsToDouble(input.readLong());
+			}
+			return doubles;
+		}
+		case ARRAY_LIST:
+		{
+			int size = (int) input.readVarint();
+			return readItems(input, input.created(new ArrayList<Object>(size)), size);
+		}
+		case LINKED_LIST:
+			return readItems(input, input.created(new LinkedList<Object>()), (int) input.readVarint());
+		case HASH_SET:
+		{
+			int size = (int) input.readVarint();
+			return readItems(input, input.created(new HashSet<Object>(capacity(size))), size);
+		}
+		case LINKED_HASH_SET:
+		{
+			int size = (int) input.readVarint();
+			return readItems(input, input.created(new LinkedHashSet<Object>(capacity(size))), size);
+		}
+		case TREE_SET:
+			return readItems(input, input.created(new TreeSet<Object>()), (int) input.readVarint());
+		case HASH_MAP:
+		{
+			int size = (int) input.readVarint();
+			return readEntries(input, input.created(new HashMap<Object, Object>(capacity(size))), size);
+		}
+		case LINKED_HASH_MAP:
+		{
+			int size = (int) input.readVarint();
+			return readEntries(input, input.created(new LinkedHashMap<Object, Object>(capacity(size))), size);
+		}
+		case TREE_MAP:
+			return readEntries(input, input.created(new TreeMap<Object, Object>()), (int) input.readVarint());
+		case ENUM:
+			return readEnum(input);
+		case OBJECT:
+			return readObject(input);
+		case REFERENCE:
+			return input.reference((int) input.readVarint());
+		default:
+			throw new IllegalStateException("Unknown tag " + tag);
+		}
+	}
+
+	private static int capacity(int size)
+	{
+		return (int) (size / 0.75f) + 1;
+	}
+
+	private Object readItems(Input input, Collection<Object> items, int size)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			items.add(read(input));
+		}
+		return items;
+	}
+
+	private Object readEntries(Input input, Map<Object, Object> map, int size)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			Object key = read(input);
+			map.put(key, read(input));
+		}
+		return map;
+	}
+
+	private Class<?> registered(int id)
+	{
+		Class<?> type = types.get(id);
+		if (type == null)
+		{
+			throw new IllegalStateException("No class registered with id " + id);
+		}
+		return type;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object readEnum(Input input)
+	{
+		Class<? extends Enum> type = (Class<? extends Enum>) registered((int) input.readVarint());
+		return Enum.valueOf(type, input.readString());
+	}
+
+	private Object readObject(Input input)
+	{
+		Class<?> type = registered((int) input.readVarint());
+		Field[] stored = input.described.get(type);
+		if (stored == null)
+		{
+			// match the stored field names to the current fields
+			Map<String, Field> current = new HashMap<String, Field>();
+			for (Field field : fields(type))
+			{
+				current.put(field.getName(), field);
+			}
+			stored = new Field[(int) input.readVarint()];
+			for (int i = 0; i < stored.length; i++)
+			{
+				stored[i] = current.get(input.readString());
+			}
+			input.described.put(type, stored);
+		}
+
+		try
+		{
+			// created before its fields are read in case they refer back to it
+			Object result = input.created(constructors.get(type).newInstance());
+			for (Field field : stored)
+			{
+				Object value = read(input);
+
+				// removed fields are skipped
+				if (field != null)
+				{
+					field.set(result, value);
+				}
+			}
+			return result;
+		}
+		catch (Exception e)
+		{
+			throw new IllegalStateException("Could not create " + type, e);
+		}
+	}
+
+	private static long zigzag(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static final class Output
+	{
+		private byte[] bytes = new byte[256];
+		private int size;
+		private final Map<Class<?>, Boolean> described = new IdentityHashMap<Class<?>, Boolean>();
+		private final Map<Object, Integer> written = new IdentityHashMap<Object, Integer>();
+
+		private void reset()
+		{
+			size = 0;
+			described.clear();
+			written.clear();
+		}
+
+		/**
+		 * @return true if the value was written before so a reference to it was written
+		 */
+		private boolean writeReference(Object value)
+		{
+			Integer index = written.get(value);
+			if (index == null)
+			{
+				// values are numbered in the order they are first written
+				written.put(value, written.size());
+				return false;
+			}
+			write(REFERENCE);
+			writeVarint(index);
+			return true;
+		}
+
+		private void ensure(int extra)
+		{
+			if (size + extra > bytes.length)
+			{
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+			}
+		}
+
+		private void write(byte b)
+		{
+			ensure(1);
+			bytes[size++] = b;
+		}
+
+		private void write(byte[] source, int offset, int length)
+		{
+			ensure(length);
+			System.arraycopy(source, offset, bytes, size, length);
+			size += length;
+		}
+
+		private void writeVarint(long value)
+		{
+			ensure(10);
+			while ((value & ~0x7FL) != 0)
+			{
+				bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+
+		private void writeLong(long value)
+		{
+			ensure(8);
+			for (int i = 0; i < 8; i++)
+			{
+				bytes[size++] = (byte) value;
+				value >>>= 8;
+			}
+		}
+
+		private void writeString(String value)
+		{
+			int length = value.length();
+			for (int i = 0; i < length; i++)
+			{
+				if (value.charAt(i) >= 0x80)
+				{
+					byte[] encoded = value.getBytes(UTF8);
+					writeVarint(encoded.length);
+					write(encoded, 0, encoded.length);
+					return;
+				}
+			}
+
+			// ascii needs no encoding
+			writeVarint(length);
+			ensure(length);
+			for (int i = 0; i < length; i++)
+			{
+				bytes[size++] = (byte) value.charAt(i);
+			}
+		}
+
+		private byte[] toByteArray()
+		{
+			return Arrays.copyOf(bytes, size);
+		}
+	}
+
+	private static final class Input
+	{
+		private final byte[] bytes;
+		private int position;
+		private final Map<Class<?>, Field[]> described = new IdentityHashMap<Class<?>, Field[]>();
+		private final List<Object> created = new ArrayList<Object>();
+
+		private Input(byte[] bytes, int position)
+		{
+			this.bytes = bytes;
+			this.position = position;
+		}
+
+		/**
+		 * Numbers values in the same order as they were written
+		 */
+		private <T> T created(T value)
+		{
+			created.add(value);
+			return value;
+		}
+
+		private Object reference(int index)
+		{
+			if (index >= created.size())
+			{
+				throw new IllegalStateException("Unknown reference " + index);
+			}
+			return created.get(index);
+		}
+
+		private byte read()
+		{
+			return bytes[position++];
+		}
+
+		private void read(byte[] target)
+		{
+			System.arraycopy(bytes, position, target, 0, target.length);
+			position += target.length;
+		}
+
+		private long readVarint()
+		{
+			long result = 0;
+			int shift = 0;
+			while (true)
+			{
+				byte b = bytes[position++];
+				result |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+				{
+					return result;
+				}
+				shift += 7;
+			}
+		}
+
+		private long readLong()
+		{
+			long result = 0;
+			for (int i = 0; i < 8; i++)
+			{
+				result |= (bytes[position++] & 0xFFL) << (i * 8);
+			}
+			return result;
+		}
+
+		private String readString()
+		{
+			int length = (int) readVarint();
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++)
+			{
+				byte b = bytes[position + i];
+				if (b < 0)
+				{
+					// not ascii so decode the whole string
+					String result = new String(bytes, position, length, UTF8);
+					position += length;
+					return result;
+				}
+				chars[i] = (char) b;
+			}
+			position += length;
+			return new String(chars);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package com.vercer.engine.persist.util.io;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates bytes behind a short header so that compressed and uncompressed
+ * values can be told apart when they are read. The header records whether
+ * the original was binary or text and its length so that the output can be
+ * allocated once. Deflaters and inflaters hold native memory so one of each
+ * is kept for every thread.
+ */
+public class Compression
+{
+	public static final byte BINARY = 'B';
+	public static final byte TEXT = 'T';
+
+	private static final byte MAGIC_0 = (byte) 0xC0;
+	private static final byte MAGIC_1 = 0x5A;
+	private static final int HEADER = 3;
+
+	// an original longer than an entity can hold was not written by us
+	private static final int MAXIMUM_LENGTH = 1 << 20;
+
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>()
+	{
+		@Override
+		protected Deflater initialValue()
+		{
+			return new Deflater(Deflater.BEST_SPEED);
+		}
+	};
+
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>()
+	{
+		@Override
+		protected Inflater initialValue()
+		{
+			return new Inflater();
+		}
+	};
+
+	/**
+	 * @param kind Either {@link #BINARY} or {@link #TEXT}
+	 * @return The compressed bytes or null if they would not be smaller
+	 */
+	public static byte[] compress(byte[] bytes, byte kind)
+	{
+		if (bytes.length < 16 || bytes.length > MAXIMUM_LENGTH)
+		{
+			return null;
+		}
+
+		byte[] output = new byte[bytes.length];
+		output[0] = MAGIC_0;
+		output[1] = MAGIC_1;
+		output[2] = kind;
+		int size = writeVarint(output, HEADER, bytes.length);
+
+		Deflater deflater = deflaters.get();
+		try
+		{
+			deflater.setInput(bytes);
+			deflater.finish();
+			while (!deflater.finished())
+			{
+				if (size == output.length)
+				{
+					// compressing does not save any space
+					return null;
+				}
+				size += deflater.deflate(output, size, output.length - size);
+			}
+		}
+		finally
+		{
+			deflater.reset();
+		}
+
+		byte[] result = new byte[size];
+		System.arraycopy(output, 0, result, 0, size);
+		return result;
+	}
+
+	/**
+	 * @return The kind of data that was compressed or 0 if the bytes are not compressed
+	 */
+	public static byte kind(byte[] bytes)
+	{
+		if (bytes.length > HEADER && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1 &&
+				(bytes[2] == BINARY || bytes[2] == TEXT))
+		{
+			return bytes[2];
+		}
+		return 0;
+	}
+
+	/**
+	 * @return The original bytes or null if the data is corrupt or was not compressed
+	 */
+	public static byte[] decompress(byte[] bytes)
+	{
+		if (kind(bytes) == 0)
+		{
+			return null;
+		}
+
+		int position = HEADER;
+		long length = 0;
+		int shift = 0;
+		while (true)
+		{
+			if (position == bytes.length || shift > 28)
+			{
+				return null;
+			}
+			byte b = bytes[position++];
+			length |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				break;
+			}
+			shift += 7;
+		}
+
+		// an uncompressed blob that starts like a header can hold any length
+		if (length > MAXIMUM_LENGTH)
+		{
+			return null;
+		}
+
+		byte[] result = new byte[(int) length];
+		Inflater inflater = inflaters.get();
+		try
+		{
+			inflater.setInput(bytes, position, bytes.length - position);
+			int size = 0;
+			while (size < result.length)
+			{
+				int inflated = inflater.inflate(result, size, result.length - size);
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput()))
+				{
+					return null;
+				}
+				size += inflated;
+			}
+			return inflater.finished() ? result : null;
+		}
+		catch (DataFormatException e)
+		{
+			return null;
+		}
+		finally
+		{
+			inflater.reset();
+		}
+	}
+
+	private static int writeVarint(byte[] output, int position, long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			output[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output[position++] = (byte) value;
+		return position;
+	}
+}
@@ -4,9 +4,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamClass;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
 
 public class NoDescriptorObjectInputStream extends ObjectInputStream
 {
+	private static final int MAXIMUM_CLASSES = 2000;
+
+	// the values hold classes which hold their class loader
+	private static final Map<ClassLoader, ConcurrentMap<String, ObjectStreamClass>> descriptors = new MapMaker()
+		.weakKeys()
+		.softValues()
+		.makeMap();
+
 	public NoDescriptorObjectInputStream(InputStream in) throws IOException
 	{
 		super(in);
@@ -15,8 +28,58 @@ public class NoDescriptorObjectInputStream extends ObjectInputStream
 	@Override
 	protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException
 	{
+		// the stream already refers back to descriptors it has read
 		String name = readUTF();
-		ObjectStreamClass lookup = ObjectStreamClass.lookup(Class.forName(name));
+		return lookup(name);
+	}
+
+	private static ObjectStreamClass lookup(String name) throws ClassNotFoundException
+	{
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		if (loader == null)
+		{
+			loader = NoDescriptorObjectInputStream.class.getClassLoader();
+		}
+
+		ConcurrentMap<String, ObjectStreamClass> cache = null;
+		if (loader != null)
+		{
+			cache = descriptors.get(loader);
+			if (cache == null)
+			{
+				// a race would only lose a few cached descriptors
+				cache = new ConcurrentHashMap<String, ObjectStreamClass>();
+				descriptors.put(loader, cache);
+			}
+
+			ObjectStreamClass cached = cache.get(name);
+			if (cached != null)
+			{
+				return cached;
+			}
+		}
+
+		ObjectStreamClass lookup = ObjectStreamClass.lookup(resolve(name, loader));
+		if (cache != null && lookup != null && cache.size() < MAXIMUM_CLASSES)
+		{
+			cache.put(name, lookup);
+		}
 		return lookup;
 	}
-}
\ No newline at end of file
+
+	private static Class<?> resolve(String name, ClassLoader loader) throws ClassNotFoundException
+	{
+		if (loader != null)
+		{
+			try
+			{
+				return Class.forName(name, true, loader);
+			}
+			catch (ClassNotFoundException e)
+			{
+				// fall back to the loader of this class
+			}
+		}
+		return Class.forName(name);
+	}
+}
@@ -15,6 +15,7 @@ public class NoDescriptorObjectOutputStream extends ObjectOutputStream
 	@Override
 	protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException
 	{
+		// only called once per class as later uses are written as a handle
 		writeUTF(desc.getName());
 	}
 }
\ No newline at end of file
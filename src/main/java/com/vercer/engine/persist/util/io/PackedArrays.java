@@ -0,0 +1,507 @@
+package com.vercer.engine.persist.util.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs primitive arrays and collections of numbers into a compact little
+ * endian byte array. Whole numbers are stored as zig-zag varints of the
+ * difference from the previous value when that is smaller than their fixed
+ * width which suits sorted ids and time series.
+ *
+ * The format is a byte for the element type, a byte for the encoding, the
+ * number of elements as a varint and then the elements. Maps are the length
+ * of the packed keys as a varint then the packed keys and values.
+ */
+public class PackedArrays
+{
+	private static final byte LONG = 1;
+	private static final byte INT = 2;
+	private static final byte SHORT = 3;
+	private static final byte DOUBLE = 4;
+	private static final byte FLOAT = 5;
+
+	private static final byte FIXED = 0;
+	private static final byte DELTA_VARINT = 1;
+
+	/**
+	 * @return true if the class is a primitive array or collection that may be packed
+	 */
+	public static boolean isPackable(Class<?> type)
+	{
+		if (type.isArray())
+		{
+			return code(type.getComponentType()) != 0;
+		}
+		return Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type);
+	}
+
+	private static byte code(Class<?> type)
+	{
+		if (type == Long.TYPE || type == Long.class)
+		{
+			return LONG;
+		}
+		else if (type == Integer.TYPE || type == Integer.class)
+		{
+			return INT;
+		}
+		else if (type == Short.TYPE || type == Short.class)
+		{
+			return SHORT;
+		}
+		else if (type == Double.TYPE || type == Double.class)
+		{
+			return DOUBLE;
+		}
+		else if (type == Float.TYPE || type == Float.class)
+		{
+			return FLOAT;
+		}
+		else
+		{
+			return 0;
+		}
+	}
+
+	/**
+	 * @param values A primitive array or a collection of numbers
+	 */
+	public static byte[] pack(Object values)
+	{
+		if (values instanceof long[])
+		{
+			return packWhole(LONG, (long[]) values);
+		}
+		else if (values instanceof int[])
+		{
+			int[] ints = (int[]) values;
+			long[] longs = new long[ints.length];
+			for (int i = 0; i < ints.length; i++)
+			{
+				longs[i] = ints[i];
+			}
+			return packWhole(INT, longs);
+		}
+		else if (values instanceof short[])
+		{
+			short[] shorts = (short[]) values;
+			long[] longs = new long[shorts.length];
+			for (int i = 0; i < shorts.length; i++)
+			{
+				longs[i] = shorts[i];
+			}
+			return packWhole(SHORT, longs);
+		}
+		else if (values instanceof double[])
+		{
+			return packDecimal(DOUBLE, (double[]) values);
+		}
+		else if (values instanceof float[])
+		{
+			float[] floats = (float[]) values;
+			double[] doubles = new double[floats.length];
+			for (int i = 0; i < floats.length; i++)
+			{
+				doubles[i] = floats[i];
+			}
+			return packDecimal(FLOAT, doubles);
+		}
+		else if (values instanceof Collection<?>)
+		{
+			return packCollection((Collection<?>) values);
+		}
+		else if (values instanceof Map<?, ?>)
+		{
+			return packMap((Map<?, ?>) values);
+		}
+		else
+		{
+			throw new IllegalArgumentException("Cannot pack " + values.getClass());
+		}
+	}
+
+	private static byte[] packCollection(Collection<?> values)
+	{
+		// use the narrowest type that can hold every item
+		byte type = 0;
+		for (Object value : values)
+		{
+			if (value == null)
+			{
+				throw new IllegalArgumentException("Cannot pack null values");
+			}
+			byte code = code(value.getClass());
+			if (code == 0)
+			{
+				throw new IllegalArgumentException("Cannot pack " + value.getClass());
+			}
+			type = type == 0 ? code : widen(type, code);
+		}
+		if (type == 0)
+		{
+			type = LONG;
+		}
+
+		if (type == DOUBLE || type == FLOAT)
+		{
+			double[] doubles = new double[values.size()];
+			int i = 0;
+			for (Object value : values)
+			{
+				doubles[i++] = ((Number) value).doubleValue();
+			}
+			return packDecimal(type, doubles);
+		}
+		else
+		{
+			long[] longs = new long[values.size()];
+			int i = 0;
+			for (Object value : values)
+			{
+				longs[i++] = ((Number) value).longValue();
+			}
+			return packWhole(type, longs);
+		}
+	}
+
+	private static byte[] packMap(Map<?, ?> map)
+	{
+		byte[] keys = packCollection(map.keySet());
+		byte[] values = packCollection(map.values());
+		ByteBuffer buffer = ByteBuffer.allocate(varintSize(keys.length) + keys.length + values.length);
+		writeVarint(buffer, keys.length);
+		buffer.put(keys);
+		buffer.put(values);
+		return buffer.array();
+	}
+
+	/**
+	 * @param keyType The wrapper type of the keys or Object for the stored type
+	 * @param valueType The wrapper type of the values or Object for the stored type
+	 */
+	public static Map<Object, Object> unpackMap(byte[] bytes, Class<?> keyType, Class<?> valueType)
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int length = (int) readVarint(buffer);
+		int start = buffer.position();
+		byte[] keyBytes = new byte[length];
+		buffer.get(keyBytes);
+		byte[] valueBytes = new byte[bytes.length - start - length];
+		buffer.get(valueBytes);
+
+		List<?> keys = (List<?>) unpack(keyBytes, keyType);
+		List<?> values = (List<?>) unpack(valueBytes, valueType);
+		Map<Object, Object> result = new HashMap<Object, Object>((int) (keys.size() / 0.75f) + 1);
+		for (int i = 0; i < keys.size(); i++)
+		{
+			result.put(keys.get(i), values.get(i));
+		}
+		return result;
+	}
+
+	private static byte widen(byte current, byte code)
+	{
+		if (current == code)
+		{
+			return current;
+		}
+		else if (current == DOUBLE || current == FLOAT || code == DOUBLE || code == FLOAT)
+		{
+			return DOUBLE;
+		}
+		else
+		{
+			return LONG;
+		}
+	}
+
+	private static int width(byte type)
+	{
+		switch (type)
+		{
+		case LONG:
+		case DOUBLE:
+			return 8;
+		case INT:
+		case FLOAT:
+			return 4;
+		case SHORT:
+			return 2;
+		default:
+			throw new IllegalStateException("Unknown packed type " + type);
+		}
+	}
+
+	private static byte[] packWhole(byte type, long[] values)
+	{
+		// choose the smaller encoding
+		int fixed = values.length * width(type);
+		int varint = 0;
+		long previous = 0;
+		for (long value : values)
+		{
+			varint += varintSize(zigzag(value - previous));
+			previous = value;
+		}
+
+		byte encoding = varint < fixed ? DELTA_VARINT : FIXED;
+		ByteBuffer buffer = header(type, encoding, values.length, Math.min(varint, fixed));
+		if (encoding == DELTA_VARINT)
+		{
+			previous = 0;
+			for (long value : values)
+			{
+				writeVarint(buffer, zigzag(value - previous));
+				previous = value;
+			}
+		}
+		else
+		{
+			for (long value : values)
+			{
+				switch (type)
+				{
+				case LONG:
+					buffer.putLong(value);
+					break;
+				case INT:
+					buffer.putInt((int) value);
+					break;
+				default:
+					buffer.putShort((short) value);
+				}
+			}
+		}
+		return buffer.array();
+	}
+
+	private static byte[] packDecimal(byte type, double[] values)
+	{
+		ByteBuffer buffer = header(type, FIXED, values.length, values.length * width(type));
+		for (double value : values)
+		{
+			if (type == DOUBLE)
+			{
+				buffer.putDouble(value);
+			}
+			else
+			{
+				buffer.putFloat((float) value);
+			}
+		}
+		return buffer.array();
+	}
+
+	private static ByteBuffer header(byte type, byte encoding, int count, int size)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(2 + varintSize(count) + size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(type);
+		buffer.put(encoding);
+		writeVarint(buffer, count);
+		return buffer;
+	}
+
+	/**
+	 * @param component The primitive type of array to create or the wrapper
+	 *            type of the items of a list. Object creates a list of the
+	 *            stored type.
+	 * @return A primitive array or a list of wrapped values
+	 */
+	public static Object unpack(byte[] bytes, Class<?> component)
+	{
+		Reader reader = new Reader(bytes);
+		int count = reader.count;
+		if (component == Long.TYPE)
+		{
+			long[] result = new long[count];
+			for (int i = 0; i < count; i++)
+			{
+				result[i] = reader.nextLong();
+			}
+			return result;
+		}
+		else if (component == Integer.TYPE)
+		{
+			int[] result = new int[count];
+			for (int i = 0; i < count; i++)
+			{
+				result[i] = (int) reader.nextLong();
+			}
+			return result;
+		}
+		else if (component == Short.TYPE)
+		{
+			short[] result = new short[count];
+			for (int i = 0; i < count; i++)
+			{
+				result[i] = (short) reader.nextLong();
+			}
+			return result;
+		}
+		else if (component == Double.TYPE)
+		{
+			double[] result = new double[count];
+			for (int i = 0; i < count; i++)
+			{
+				result[i] = reader.nextDouble();
+			}
+			return result;
+		}
+		else if (component == Float.TYPE)
+		{
+			float[] result = new float[count];
+			for (int i = 0; i < count; i++)
+			{
+				result[i] = (float) reader.nextDouble();
+			}
+			return result;
+		}
+		else
+		{
+			byte code = code(component);
+			if (code == 0)
+			{
+				code = reader.type;
+			}
+
+			List<Object> result = new ArrayList<Object>(count);
+			for (int i = 0; i < count; i++)
+			{
+				switch (code)
+				{
+				case LONG:
+					result.add(reader.nextLong());
+					break;
+				case INT:
+					result.add((int) reader.nextLong());
+					break;
+				case SHORT:
+					result.add((short) reader.nextLong());
+					break;
+				case DOUBLE:
+					result.add(reader.nextDouble());
+					break;
+				default:
+					result.add((float) reader.nextDouble());
+				}
+			}
+			return result;
+		}
+	}
+
+	private static final class Reader
+	{
+		private final ByteBuffer buffer;
+		private final byte type;
+		private final byte encoding;
+		private final int count;
+		private long previous;
+
+		private Reader(byte[] bytes)
+		{
+			buffer = ByteBuffer.wrap(bytes);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			type = buffer.get();
+			encoding = buffer.get();
+			count = (int) readVarint(buffer);
+
+			// fail early on corrupt data
+			width(type);
+		}
+
+		private long nextLong()
+		{
+			if (type == DOUBLE || type == FLOAT)
+			{
+				return (long) nextDouble();
+			}
+			else if (encoding == DELTA_VARINT)
+			{
+				previous += unzigzag(readVarint(buffer));
+				return previous;
+			}
+			else if (type == LONG)
+			{
+				return buffer.getLong();
+			}
+			else if (type == INT)
+			{
+				return buffer.getInt();
+			}
+			else
+			{
+				return buffer.getShort();
+			}
+		}
+
+		private double nextDouble()
+		{
+			if (type == DOUBLE)
+			{
+				return buffer.getDouble();
+			}
+			else if (type == FLOAT)
+			{
+				return buffer.getFloat();
+			}
+			else
+			{
+				return nextLong();
+			}
+		}
+	}
+
+	private static long zigzag(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static int varintSize(long value)
+	{
+		int size = 1;
+		while ((value & ~0x7FL) != 0)
+		{
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	private static void writeVarint(ByteBuffer buffer, long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static long readVarint(ByteBuffer buffer)
+	{
+		long result = 0;
+		int shift = 0;
+		while (true)
+		{
+			byte b = buffer.get();
+			result |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return result;
+			}
+			shift += 7;
+		}
+	}
+}
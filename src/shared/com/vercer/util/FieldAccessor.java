@@ -0,0 +1,81 @@
+package com.vercer.util;
+
+import java.lang.reflect.Field;
+
+/**
+ * Reads and writes the value of an instance field. The field is made
+ * accessible once when the accessor is created so later calls avoid the
+ * access checks. Values are unwrapped and widened as by
+ * {@link Field#set(Object, Object)} so an Integer can be set to a long field.
+ */
+public final class FieldAccessor
+{
+	private final Field field;
+
+	private FieldAccessor(Field field)
+	{
+		this.field = field;
+		if (!field.isAccessible())
+		{
+			field.setAccessible(true);
+		}
+	}
+
+	public static FieldAccessor create(Field field)
+	{
+		return new FieldAccessor(field);
+	}
+
+	public Field getField()
+	{
+		return field;
+	}
+
+	public Object get(Object instance)
+	{
+		try
+		{
+			return field.get(instance);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public void set(Object instance, Object value)
+	{
+		try
+		{
+			field.set(instance, value);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public long getLong(Object instance)
+	{
+		try
+		{
+			return field.getLong(instance);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public void setLong(Object instance, long value)
+	{
+		try
+		{
+			field.setLong(instance, value);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -16,7 +16,7 @@ import com.google.common.collect.UnmodifiableIterator;
 public class ArraySortedSet<T extends Comparable<T>> extends AbstractSet<T> implements SortedSet<T>
 {
 	private final T[] elements;
-	private final static Comparator<?> comparator = new Comparator<Comparable<Object>>()
+	private final static Comparator<?> natural = new Comparator<Comparable<Object>>()
 	{
 		public int compare(Comparable<Object> o1, Comparable<Object> o2)
 		{
@@ -25,17 +25,29 @@ public class ArraySortedSet<T extends Comparable<T>> extends AbstractSet<T> impl
 	};
 	private final int offset;
 	private final int length;
+	private final Comparator<? super T> comparator;
 
 	public ArraySortedSet(T[] elements)
 	{
 		this(elements, 0, elements.length);
 	}
 
+	@SuppressWarnings("unchecked")
 	public ArraySortedSet(T[] elements, int offset, int length)
+	{
+		this(elements, offset, length, (Comparator<? super T>) natural);
+	}
+
+	/**
+	 * @param comparator The order of the elements which may only compare
+	 *            part of them so equal elements are found with equals
+	 */
+	public ArraySortedSet(T[] elements, int offset, int length, Comparator<? super T> comparator)
 	{
 		this.elements = elements;
 		this.offset = offset;
 		this.length = length;
+		this.comparator = comparator;
 	}
 
 	@Override
@@ -70,39 +82,108 @@ public class ArraySortedSet<T extends Comparable<T>> extends AbstractSet<T> impl
 		return length;
 	}
 
+	@Override
+	public boolean contains(Object o)
+	{
+		return indexOf(o) >= 0;
+	}
+
 	@SuppressWarnings("unchecked")
+	private int indexOf(Object o)
+	{
+		// only an element of the same type can be compared
+		if (!elements.getClass().getComponentType().isInstance(o))
+		{
+			return -1;
+		}
+
+		int index = Arrays.binarySearch(elements, offset, offset + length, (T) o, comparator);
+
+		if (index < 0)
+		{
+			return -1;
+		}
+
+		// the comparator may find a different element that is in the same position
+		for (int i = index; i >= offset && comparator.compare(elements[i], (T) o) == 0; i--)
+		{
+			if (elements[i].equals(o))
+			{
+				return i - offset;
+			}
+		}
+		for (int i = index + 1; i < offset + length && comparator.compare(elements[i], (T) o) == 0; i++)
+		{
+			if (elements[i].equals(o))
+			{
+				return i - offset;
+			}
+		}
+		return -1;
+	}
+
+	// the position at which the element is or would be inserted
+	private int position(T element)
+	{
+		int index = Arrays.binarySearch(elements, offset, offset + length, element, comparator);
+		return index < 0 ? -index - 1 - offset : index - offset;
+	}
+
+	/**
+	 * @return The element at the index relative to the start of this set
+	 */
+	public T get(int index)
+	{
+		Preconditions.checkElementIndex(index, length);
+		return elements[offset + index];
+	}
+
+	/**
+	 * @return A view of the elements from index inclusive to index exclusive
+	 *         which shares the same backing array
+	 */
+	public ArraySortedSet<T> range(int from, int to)
+	{
+		Preconditions.checkPositionIndexes(from, to, length);
+		return new ArraySortedSet<T>(elements, offset + from, to - from, comparator);
+	}
+
 	public Comparator<? super T> comparator()
 	{
-		return (Comparator<? super T>) comparator;
+		return comparator;
 	}
 
 	public T first()
 	{
-		return elements[0];
+		if (length == 0)
+		{
+			throw new NoSuchElementException();
+		}
+		return elements[offset];
 	}
 
 	public SortedSet<T> headSet(T toElement)
 	{
-		int index = Arrays.binarySearch(elements, toElement);
-		return new ArraySortedSet<T>(elements, 0, index + 1);
+		return range(0, position(toElement));
 	}
 
 	public T last()
 	{
+		if (length == 0)
+		{
+			throw new NoSuchElementException();
+		}
 		return elements[offset + length - 1];
 	}
 
 	public SortedSet<T> subSet(T fromElement, T toElement)
 	{
-		int from = Arrays.binarySearch(elements, fromElement);
-		int to = Arrays.binarySearch(elements, toElement);
-		return new ArraySortedSet<T>(elements, from, to - from + 1);
+		return range(position(fromElement), position(toElement));
 	}
 
 	public SortedSet<T> tailSet(T fromElement)
 	{
-		int index = Arrays.binarySearch(elements, fromElement);
-		return new ArraySortedSet<T>(elements, index, length);
+		return range(position(fromElement), length);
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,121 @@
+package com.vercer.engine.persist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.vercer.engine.persist.annotation.AnnotationObjectDatastore;
+import com.vercer.engine.persist.annotation.Id;
+
+public class DirtyCheckingTest extends LocalDatastoreTestCase
+{
+	public static class Counter
+	{
+		@Id String name;
+		int count;
+		String label;
+		List<String> tags = new ArrayList<String>();
+	}
+
+	private Counter store(String name, int count)
+	{
+		Counter counter = new Counter();
+		counter.name = name;
+		counter.count = count;
+		new AnnotationObjectDatastore().store(counter);
+		return counter;
+	}
+
+	@Test
+	public void unchangedUpdatesAreSkipped()
+	{
+		store("first", 1);
+		store("second", 2);
+
+		AnnotationObjectDatastore datastore = new AnnotationObjectDatastore();
+		datastore.setDirtyChecking(true);
+		Counter first = datastore.load(Counter.class, "first");
+		Counter second = datastore.load(Counter.class, "second");
+
+		// change the stored values behind the back of the session
+		AnnotationObjectDatastore other = new AnnotationObjectDatastore();
+		Counter changed = other.load(Counter.class, "first");
+		changed.label = "changed";
+		other.update(changed);
+		changed = other.load(Counter.class, "second");
+		changed.label = "changed";
+		other.update(changed);
+
+		// only the modified instance is written
+		second.count = 20;
+		datastore.updateAll(Arrays.asList(first, second));
+
+		AnnotationObjectDatastore reader = new AnnotationObjectDatastore();
+		Assert.assertEquals("changed", reader.load(Counter.class, "first").label);
+		Counter loaded = reader.load(Counter.class, "second");
+		Assert.assertEquals(20, loaded.count);
+		Assert.assertNull(loaded.label);
+	}
+
+	@Test
+	public void changedListIsWritten()
+	{
+		store("first", 1);
+
+		AnnotationObjectDatastore datastore = new AnnotationObjectDatastore();
+		datastore.setDirtyChecking(true);
+		Counter first = datastore.load(Counter.class, "first");
+		first.tags.add("one");
+		datastore.update(first);
+
+		// the kept copy must not share the list with the instance
+		first.tags.add("two");
+		datastore.update(first);
+
+		Counter loaded = new AnnotationObjectDatastore().load(Counter.class, "first");
+		Assert.assertEquals(Arrays.asList("one", "two"), loaded.tags);
+	}
+
+	@Test
+	public void loadedUnchangedInstanceIsNotPut()
+	{
+		Counter counter = store("first", 1);
+		counter.tags.add("one");
+		new AnnotationObjectDatastore().update(counter);
+
+		final int[] puts = new int[1];
+		AnnotationObjectDatastore datastore = new AnnotationObjectDatastore()
+		{
+			@Override
+			protected Key entityToKey(Entity entity)
+			{
+				puts[0]++;
+				return super.entityToKey(entity);
+			}
+
+			@Override
+			protected Future<List<Key>> entitiesToKeysLater(List<Entity> entities)
+			{
+				puts[0] += entities.size();
+				return super.entitiesToKeysLater(entities);
+			}
+		};
+		datastore.setDirtyChecking(true);
+
+		// the int field is read back as a long but still matches
+		Counter loaded = datastore.load(Counter.class, "first");
+		datastore.update(loaded);
+		datastore.updateAll(Arrays.asList(loaded));
+		Assert.assertEquals(0, puts[0]);
+
+		loaded.count = 2;
+		datastore.update(loaded);
+		Assert.assertEquals(1, puts[0]);
+	}
+}
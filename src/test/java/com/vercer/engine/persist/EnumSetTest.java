@@ -1,12 +1,17 @@
 package com.vercer.engine.persist;
 
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import com.google.appengine.api.datastore.Key;
 import com.vercer.engine.persist.annotation.AnnotationObjectDatastore;
+import com.vercer.engine.persist.annotation.Packed;
 
 public class EnumSetTest extends LocalDatastoreTestCase
 {
@@ -34,4 +39,61 @@ public class EnumSetTest extends LocalDatastoreTestCase
 		Assert.assertTrue(loaded.theEnumSet instanceof EnumSet<?>);
 		Assert.assertTrue(loaded.theEnumSet.size() == 2);
 	}
+
+	public static class PackedEnumContainer
+	{
+		@Packed EnumSet<MyEnum> theEnumSet;
+		@Packed Set<MyEnum> theSet;
+		@Packed List<MyEnum> theList;
+	}
+
+	@Test
+	public void testStoreLoadPackedEnumSet()
+	{
+		PackedEnumContainer container = new PackedEnumContainer();
+		container.theEnumSet = EnumSet.of(MyEnum.THERE);
+		container.theSet = new HashSet<MyEnum>(EnumSet.allOf(MyEnum.class));
+
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		Key key = datastore.store(container);
+
+		datastore.disassociateAll();
+
+		PackedEnumContainer loaded = datastore.load(key);
+
+		Assert.assertEquals(EnumSet.of(MyEnum.THERE), loaded.theEnumSet);
+		Assert.assertEquals(EnumSet.allOf(MyEnum.class), loaded.theSet);
+	}
+
+	@Test
+	public void testStoreLoadPackedEmptySet()
+	{
+		PackedEnumContainer container = new PackedEnumContainer();
+		container.theSet = new HashSet<MyEnum>();
+
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		Key key = datastore.store(container);
+
+		datastore.disassociateAll();
+
+		PackedEnumContainer loaded = datastore.load(key);
+
+		Assert.assertTrue(loaded.theSet.isEmpty());
+	}
+
+	@Test
+	public void testStoreLoadPackedEnumList()
+	{
+		PackedEnumContainer container = new PackedEnumContainer();
+		container.theList = Arrays.asList(MyEnum.THERE, MyEnum.HELLO, MyEnum.THERE);
+
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		Key key = datastore.store(container);
+
+		datastore.disassociateAll();
+
+		PackedEnumContainer loaded = datastore.load(key);
+
+		Assert.assertEquals(Arrays.asList(MyEnum.THERE, MyEnum.HELLO, MyEnum.THERE), loaded.theList);
+	}
 }
@@ -0,0 +1,279 @@
+package com.vercer.engine.persist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.vercer.engine.persist.annotation.AnnotationObjectDatastore;
+import com.vercer.engine.persist.annotation.Id;
+import com.vercer.engine.persist.annotation.Independent;
+
+public class GraphStoreTest extends LocalDatastoreTestCase
+{
+	public static class Task
+	{
+		@Id Long id;
+		String name;
+		@Independent Task next;
+		@Independent List<Task> parts = new ArrayList<Task>();
+
+		public Task()
+		{
+		}
+
+		public Task(String name)
+		{
+			this.name = name;
+		}
+	}
+
+	public static class Label
+	{
+		@Id String name;
+		@Independent Task task;
+	}
+
+	@Test
+	public void storeReferencedGraph()
+	{
+		Task root = new Task("root");
+		root.next = new Task("next");
+		root.next.next = new Task("last");
+		root.parts.add(new Task("first part"));
+		root.parts.add(new Task("second part"));
+
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		Key key = datastore.store(root);
+
+		// every instance in the graph is given its id
+		Assert.assertEquals(Long.valueOf(key.getId()), root.id);
+		Assert.assertNotNull(root.next.next.id);
+		Assert.assertNotNull(root.parts.get(1).id);
+
+		ObjectDatastore other = new AnnotationObjectDatastore();
+		Task loaded = other.load(key);
+		Assert.assertEquals("last", loaded.next.next.name);
+		Assert.assertEquals("second part", loaded.parts.get(1).name);
+	}
+
+	@Test
+	public void storeAllSharedReferences()
+	{
+		Task shared = new Task("shared");
+		Label first = new Label();
+		first.name = "first";
+		first.task = shared;
+		Label second = new Label();
+		second.name = "second";
+		second.task = shared;
+
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		datastore.storeAll(Arrays.asList(first, second));
+
+		ObjectDatastore other = new AnnotationObjectDatastore();
+		Label loaded = other.load(Label.class, "second");
+		Assert.assertEquals(shared.id, loaded.task.id);
+	}
+
+	@Test
+	public void storeAllInSmallBatches()
+	{
+		List<Task> tasks = new ArrayList<Task>();
+		for (int i = 0; i < 20; i++)
+		{
+			Task task = new Task("task " + i);
+			task.next = new Task("next " + i);
+			tasks.add(task);
+		}
+
+		AnnotationObjectDatastore datastore = new AnnotationObjectDatastore();
+		datastore.setMaximumBatchSize(3, 200);
+		datastore.setMaximumPutsInFlight(2);
+		Map<Task, Key> keys = datastore.storeAll(tasks);
+		Assert.assertEquals(20, keys.size());
+
+		ObjectDatastore other = new AnnotationObjectDatastore();
+		Task loaded = other.load(keys.get(tasks.get(17)));
+		Assert.assertEquals("next 17", loaded.next.name);
+	}
+
+	@Test
+	public void storeGraphPutsThroughDatastore()
+	{
+		final List<Integer> batches = new ArrayList<Integer>();
+		AnnotationObjectDatastore datastore = new AnnotationObjectDatastore()
+		{
+			@Override
+			protected Future<List<Key>> entitiesToKeysLater(List<Entity> entities)
+			{
+				batches.add(entities.size());
+				return super.entitiesToKeysLater(entities);
+			}
+		};
+
+		Task root = new Task("root");
+		root.next = new Task("next");
+		datastore.store(root);
+
+		// the referenced instance is put before the one that references it
+		Assert.assertEquals(Arrays.asList(1, 1), batches);
+	}
+
+	@Test
+	public void returnKeysLaterDoesNotWait() throws Exception
+	{
+		final int[] waits = new int[1];
+		AnnotationObjectDatastore datastore = new AnnotationObjectDatastore()
+		{
+			@Override
+			protected Future<List<Key>> entitiesToKeysLater(List<Entity> entities)
+			{
+				final Future<List<Key>> put = super.entitiesToKeysLater(entities);
+				return new Future<List<Key>>()
+				{
+					public boolean cancel(boolean mayInterruptIfRunning)
+					{
+						return put.cancel(mayInterruptIfRunning);
+					}
+
+					public boolean isCancelled()
+					{
+						return put.isCancelled();
+					}
+
+					public boolean isDone()
+					{
+						return false;
+					}
+
+					public List<Key> get() throws InterruptedException, ExecutionException
+					{
+						waits[0]++;
+						return put.get();
+					}
+
+					public List<Key> get(long timeout, TimeUnit unit) throws InterruptedException,
+							ExecutionException, TimeoutException
+					{
+						waits[0]++;
+						return put.get(timeout, unit);
+					}
+				};
+			}
+		};
+		datastore.setMaximumBatchSize(1, 1000);
+		datastore.setMaximumPutsInFlight(1);
+
+		Future<Map<Task, Key>> future = datastore.store()
+			.instances(new Task("first"), new Task("second"), new Task("third"))
+			.returnKeysLater();
+
+		// every batch is sent before any is waited for
+		Assert.assertEquals(0, waits[0]);
+		Assert.assertEquals(3, future.get().size());
+		Assert.assertEquals(3, waits[0]);
+	}
+
+	@Test
+	public void storeAgainAfterFailedPut()
+	{
+		final boolean[] failed = new boolean[1];
+		AnnotationObjectDatastore datastore = new AnnotationObjectDatastore()
+		{
+			@Override
+			protected Future<List<Key>> entitiesToKeysLater(List<Entity> entities)
+			{
+				if (!failed[0])
+				{
+					failed[0] = true;
+					throw new IllegalStateException("Unavailable");
+				}
+				return super.entitiesToKeysLater(entities);
+			}
+		};
+
+		Task root = new Task("root");
+		root.next = new Task("next");
+		try
+		{
+			datastore.store(root);
+			Assert.fail();
+		}
+		catch (IllegalStateException e)
+		{
+			Assert.assertEquals("Unavailable", e.getMessage());
+		}
+
+		// the instances that were not put are not held by the session
+		Key key = datastore.store(root);
+		Assert.assertEquals("next", new AnnotationObjectDatastore().<Task>load(key).next.name);
+	}
+
+	@Test
+	public void retryAfterFailureWithPutInFlight()
+	{
+		final int[] batches = new int[1];
+		AnnotationObjectDatastore datastore = new AnnotationObjectDatastore()
+		{
+			@Override
+			protected Future<List<Key>> entitiesToKeysLater(List<Entity> entities)
+			{
+				// the second batch fails while the first is still in flight
+				if (++batches[0] == 2)
+				{
+					throw new IllegalStateException("Unavailable");
+				}
+				return super.entitiesToKeysLater(entities);
+			}
+		};
+		datastore.setMaximumBatchSize(1, 1000);
+
+		Task root = new Task("root");
+		root.parts.add(new Task("first part"));
+		root.parts.add(new Task("second part"));
+		try
+		{
+			datastore.store(root);
+			Assert.fail();
+		}
+		catch (IllegalStateException e)
+		{
+			Assert.assertEquals("Unavailable", e.getMessage());
+		}
+
+		// the part that was put keeps its key so it is not put again
+		Assert.assertNotNull(root.parts.get(0).id);
+		datastore.store(root);
+
+		int count = 0;
+		Iterator<Task> tasks = new AnnotationObjectDatastore().find(Task.class);
+		while (tasks.hasNext())
+		{
+			tasks.next();
+			count++;
+		}
+		Assert.assertEquals(3, count);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void cycleWithoutKeys()
+	{
+		Task first = new Task("first");
+		Task second = new Task("second");
+		first.next = second;
+		second.next = first;
+
+		new AnnotationObjectDatastore().store(first);
+	}
+}
@@ -0,0 +1,96 @@
+package com.vercer.engine.persist;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.appengine.api.datastore.Key;
+import com.vercer.engine.persist.annotation.AnnotationObjectDatastore;
+import com.vercer.engine.persist.annotation.Id;
+import com.vercer.engine.persist.annotation.Independent;
+import com.vercer.engine.persist.standard.IdPool;
+import com.vercer.engine.persist.standard.LocalIdAllocator;
+
+public class IdPoolTest extends LocalDatastoreTestCase
+{
+	public static class Person
+	{
+		@Id Long id;
+		String name;
+		@Independent Person friend;
+
+		public Person()
+		{
+		}
+
+		public Person(String name)
+		{
+			this.name = name;
+		}
+	}
+
+	@Test
+	public void idsAreReservedInBlocks()
+	{
+		IdPool pool = new IdPool(new LocalIdAllocator(100), 3);
+		Assert.assertEquals(100, pool.next(null, "Person"));
+		Assert.assertEquals(101, pool.next(null, "Person"));
+		Assert.assertEquals(103, pool.next(null, "Other"));
+		Assert.assertEquals(102, pool.next(null, "Person"));
+		Assert.assertEquals(106, pool.next(null, "Person"));
+	}
+
+	@Test
+	public void storeCycleWithReservedIds()
+	{
+		Person first = new Person("first");
+		Person second = new Person("second");
+		first.friend = second;
+		second.friend = first;
+
+		AnnotationObjectDatastore datastore = new AnnotationObjectDatastore();
+		datastore.setIdPool(new IdPool(new LocalIdAllocator(), 10));
+		Key key = datastore.store(first);
+		Assert.assertNotNull(second.id);
+
+		ObjectDatastore other = new AnnotationObjectDatastore();
+		Person loaded = other.load(key);
+		Assert.assertSame(loaded, loaded.friend.friend);
+	}
+
+	@Test
+	public void batchStoreNewInstances()
+	{
+		Person first = new Person("first");
+		first.friend = new Person("friend");
+		Person second = new Person("second");
+
+		AnnotationObjectDatastore datastore = new AnnotationObjectDatastore();
+		datastore.setIdPool(new IdPool(new LocalIdAllocator(), 10));
+		Map<Person, Key> keys = datastore.store().instances(first, second).batch().returnKeysNow();
+
+		ObjectDatastore other = new AnnotationObjectDatastore();
+		Person loaded = other.load(keys.get(first));
+		Assert.assertEquals("friend", loaded.friend.name);
+	}
+
+	@Test
+	public void associateWithoutIdIsNotGivenOne()
+	{
+		AnnotationObjectDatastore datastore = new AnnotationObjectDatastore();
+		datastore.setIdPool(new IdPool(new LocalIdAllocator(), 10));
+
+		Person person = new Person("unknown");
+		try
+		{
+			datastore.associate(person);
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+			// an instance must already have a complete key to be associated
+		}
+		Assert.assertNull(person.id);
+	}
+}
@@ -0,0 +1,46 @@
+package com.vercer.engine.persist;
+
+import java.util.Iterator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.vercer.engine.persist.annotation.AnnotationObjectDatastore;
+import com.vercer.engine.persist.annotation.AnnotationStrategy;
+import com.vercer.engine.persist.annotation.Entity;
+import com.vercer.engine.persist.annotation.Version;
+
+public class KindTest extends LocalDatastoreTestCase
+{
+	@Entity(kind = "Record")
+	@Version(2)
+	public static class Record
+	{
+		String title;
+	}
+
+	@Test
+	public void registeredKindResolvesType()
+	{
+		AnnotationStrategy strategy = new AnnotationStrategy(true, 0);
+		strategy.register(Record.class);
+
+		// the annotated kind cannot be parsed into a class name
+		Assert.assertEquals(Record.class, strategy.kindToType("v2_Record"));
+		Assert.assertEquals("v2_Record", strategy.typeToKind(Record.class));
+	}
+
+	@Test
+	public void storeFindAnnotatedKind()
+	{
+		Record record = new Record();
+		record.title = "Blue Train";
+
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		datastore.store(record);
+		datastore.disassociateAll();
+
+		Iterator<Record> results = datastore.find(Record.class);
+		Assert.assertEquals("Blue Train", results.next().title);
+	}
+}
@@ -10,6 +10,8 @@ import org.junit.Test;
 
 import com.google.appengine.api.datastore.Key;
 import com.vercer.engine.persist.annotation.AnnotationObjectDatastore;
+import com.vercer.engine.persist.annotation.Compact;
+import com.vercer.engine.persist.annotation.Packed;
 
 public class MapTest extends LocalDatastoreTestCase
 {
@@ -160,4 +162,30 @@ public class MapTest extends LocalDatastoreTestCase
 		
 		Assert.assertEquals(created, loaded);
 	}
+
+	public static class ContainsCompactMaps
+	{
+		@Compact Map<String, Long> counts = new HashMap<String, Long>();
+		@Packed Map<Long, Double> series = new HashMap<Long, Double>();
+	}
+
+	@Test
+	public void storeLoadCompact()
+	{
+		ContainsCompactMaps created = new ContainsCompactMaps();
+		created.counts.put("red", 3l);
+		created.counts.put("blue", 5l);
+		created.series.put(1000l, 1.5);
+		created.series.put(2000l, 2.5);
+
+		AnnotationObjectDatastore datastore = new AnnotationObjectDatastore();
+		Key key = datastore.store(created);
+
+		datastore.disassociateAll();
+
+		ContainsCompactMaps loaded = datastore.load(key);
+
+		Assert.assertEquals(created.counts, loaded.counts);
+		Assert.assertEquals(created.series, loaded.series);
+	}
 }
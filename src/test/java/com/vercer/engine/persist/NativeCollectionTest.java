@@ -0,0 +1,102 @@
+package com.vercer.engine.persist;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.appengine.api.datastore.Key;
+import com.vercer.engine.persist.annotation.AnnotationObjectDatastore;
+import com.vercer.engine.persist.conversion.CollectionConverter;
+import com.vercer.engine.persist.conversion.TypeConverter;
+
+public class NativeCollectionTest extends LocalDatastoreTestCase
+{
+	public static class NativeContainer
+	{
+		List<Long> ids = new ArrayList<Long>();
+		Set<String> tags;
+		long[] counts;
+		int[] sizes;
+	}
+
+	@Test
+	public void storeLoadNativeCollections()
+	{
+		NativeContainer container = new NativeContainer();
+		container.ids.addAll(Arrays.asList(3l, 1l, 2l));
+		container.tags = new TreeSet<String>(Arrays.asList("red", "green"));
+		container.counts = new long[] { 5, 6, 7 };
+		container.sizes = new int[] { 1, 2 };
+
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		Key key = datastore.store(container);
+
+		datastore.disassociateAll();
+
+		NativeContainer loaded = datastore.load(key);
+
+		Assert.assertEquals(Arrays.asList(3l, 1l, 2l), loaded.ids);
+		Assert.assertEquals(container.tags, loaded.tags);
+		Assert.assertArrayEquals(new long[] { 5, 6, 7 }, loaded.counts);
+		Assert.assertArrayEquals(new int[] { 1, 2 }, loaded.sizes);
+	}
+
+	public static class SortedContainer
+	{
+		Set<String> sorted = new TreeSet<String>();
+	}
+
+	@Test
+	public void fillDefaultCollection()
+	{
+		SortedContainer container = new SortedContainer();
+		container.sorted.addAll(Arrays.asList("b", "a"));
+
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		Key key = datastore.store(container);
+
+		datastore.disassociateAll();
+
+		SortedContainer loaded = datastore.load(key);
+
+		// the default collection is filled
+		Assert.assertTrue(loaded.sorted instanceof TreeSet<?>);
+		Assert.assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(loaded.sorted));
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void overriddenCreateCollectionInstanceIsCalled() throws Exception
+	{
+		final List<Object> created = new ArrayList<Object>();
+		TypeConverter identity = new TypeConverter()
+		{
+			@SuppressWarnings("unchecked")
+			public <T> T convert(Object source, Type type)
+			{
+				return (T) source;
+			}
+		};
+		CollectionConverter converter = new CollectionConverter(identity)
+		{
+			@Override
+			protected <T> T createCollectionInstance(Class<?> erased, Type componentType, List<Object> convertedItems)
+			{
+				created.addAll(convertedItems);
+				return super.<T>createCollectionInstance(erased, componentType, convertedItems);
+			}
+		};
+
+		Type type = SortedContainer.class.getDeclaredField("sorted").getGenericType();
+		Set<String> result = converter.convert(Arrays.asList("a", "b"), type);
+
+		Assert.assertEquals(Arrays.asList("a", "b"), created);
+		Assert.assertEquals(new TreeSet<String>(Arrays.asList("a", "b")), result);
+	}
+}
@@ -0,0 +1,49 @@
+package com.vercer.engine.persist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.vercer.engine.persist.annotation.AnnotationObjectDatastore;
+import com.vercer.engine.persist.annotation.Packed;
+
+public class PackedTest extends LocalDatastoreTestCase
+{
+	public static class Series
+	{
+		@Packed long[] times;
+		@Packed double[] values;
+		@Packed List<Integer> counts = new ArrayList<Integer>();
+	}
+
+	@Test
+	public void storeLoadPacked() throws EntityNotFoundException
+	{
+		Series series = new Series();
+		series.times = new long[] { 1000000, 1000010, 1000020, 999990 };
+		series.values = new double[] { 1.5, -2.25, 3 };
+		series.counts.addAll(Arrays.asList(7, 8, 9));
+
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		Key key = datastore.store(series);
+
+		// every packed field is a single blob
+		Entity entity = DatastoreServiceFactory.getDatastoreService().get(key);
+		Assert.assertTrue(entity.getProperty("times") instanceof Blob);
+
+		datastore.disassociateAll();
+
+		Series loaded = datastore.load(key);
+		Assert.assertArrayEquals(series.times, loaded.times);
+		Assert.assertArrayEquals(series.values, loaded.values, 0);
+		Assert.assertEquals(series.counts, loaded.counts);
+	}
+}
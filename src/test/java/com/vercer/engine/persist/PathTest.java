@@ -0,0 +1,53 @@
+package com.vercer.engine.persist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vercer.engine.persist.Path.Part;
+
+public class PathTest
+{
+	@Test
+	public void parts()
+	{
+		Path path = new Path("a.bb$cc.d");
+		List<Part> parts = path.getParts();
+		assertEquals(4, parts.size());
+		assertEquals("a", parts.get(0).getName());
+		assertTrue(parts.get(0).isRoot());
+		assertEquals("bb", parts.get(1).getName());
+		assertTrue(parts.get(1).isField());
+		assertEquals("cc", parts.get(2).getName());
+		assertTrue(parts.get(2).isMeta());
+		assertEquals("d", parts.get(3).getName());
+		assertNull(parts.get(4));
+	}
+
+	@Test
+	public void firstPartAfterPrefix()
+	{
+		Path path = new Path("one.two.three");
+		Path prefix = new Path("one.two");
+		assertTrue(path.hasPrefix(prefix));
+
+		Part part = path.firstPartAfterPrefix(prefix);
+		assertEquals("three", part.getName());
+		assertEquals(new Path("x.three").getParts().get(1), part);
+		assertEquals(new Path("x.three").getParts().get(1).hashCode(), part.hashCode());
+
+		assertNull(prefix.firstPartAfterPrefix(prefix));
+	}
+
+	@Test
+	public void intern()
+	{
+		assertSame(Path.intern("field.name"), Path.intern("field.name"));
+		assertEquals(new Path("field.name"), Path.intern("field.name"));
+	}
+}
@@ -10,6 +10,7 @@ import com.google.appengine.api.datastore.QueryResultIterator;
 import com.vercer.engine.persist.annotation.AnnotationObjectDatastore;
 import com.vercer.engine.persist.annotation.Embed;
 import com.vercer.engine.persist.annotation.Key;
+import com.vercer.engine.persist.strategy.TypeDictionary;
 
 @SuppressWarnings("deprecation")
 class Driver {
@@ -70,4 +71,27 @@ public class PolymorphicCollectionsTest extends LocalDatastoreTestCase
 		
 		Assert.assertTrue(result.hasNext());
 	}
+
+	@Test
+	public void registeredTypeIds()
+	{
+		ObjectDatastore datastore = new AnnotationObjectDatastore()
+		{
+			@Override
+			protected TypeDictionary createTypeDictionary()
+			{
+				return new TypeDictionary().register(1, Car.class).register(2, Lorry.class);
+			}
+		};
+
+		com.google.appengine.api.datastore.Key carKey = datastore.store(new Driver(new Car(new Date())));
+		com.google.appengine.api.datastore.Key lorryKey = datastore.store(new Driver(new Lorry(60l)));
+		com.google.appengine.api.datastore.Key vehicleKey = datastore.store(new Driver(new Vehicle("air")));
+
+		datastore.disassociateAll();
+
+		Assert.assertTrue(datastore.<Driver>load(carKey).vehicle instanceof Car);
+		Assert.assertEquals(Long.valueOf(60), ((Lorry) datastore.<Driver>load(lorryKey).vehicle).maxSpeed);
+		Assert.assertEquals("air", datastore.<Driver>load(vehicleKey).vehicle.type);
+	}
 }
@@ -1,18 +1,26 @@
 package com.vercer.engine.persist;
 
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
 
 import junit.framework.Assert;
 
 import org.junit.Test;
 
+import com.google.appengine.api.datastore.Blob;
 import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Text;
 import com.vercer.engine.persist.TypeWithCollections.TypeWithEnum;
 import com.vercer.engine.persist.TypeWithCollections.TypeWithEnum.MyEnum;
 import com.vercer.engine.persist.annotation.AnnotationObjectDatastore;
+import com.vercer.engine.persist.annotation.Compress;
+import com.vercer.engine.persist.annotation.Type;
 import com.vercer.engine.persist.conversion.CombinedTypeConverter;
 import com.vercer.engine.persist.conversion.DefaultTypeConverter;
+import com.vercer.engine.persist.util.io.CompactBlobCodec;
 
 
 public class SerializeCollectionsTest extends LocalDatastoreTestCase
@@ -50,4 +58,130 @@ public class SerializeCollectionsTest extends LocalDatastoreTestCase
 		TypeWithCollections loaded = datastore.load(key);
 		Assert.assertNotNull(loaded);
 	}
+
+	public static class ContainsBlobs
+	{
+		@Type(Blob.class) HashMap<String, Long> counts;
+		@Type(Blob.class) Date[] dates;
+		@Type(Blob.class) ArrayList<ArrayList<String>> lists;
+	}
+
+	private static ObjectDatastore compactDatastore()
+	{
+		return new AnnotationObjectDatastore()
+		{
+			@Override
+			protected CombinedTypeConverter createTypeConverter()
+			{
+				return new DefaultTypeConverter(new CompactBlobCodec());
+			}
+		};
+	}
+
+	@Test
+	public void compactAndSerializedBlobs()
+	{
+		ContainsBlobs item = new ContainsBlobs();
+		item.counts = new HashMap<String, Long>();
+		item.counts.put("red", 3l);
+		item.dates = new Date[] { new Date(1000) };
+
+		ObjectDatastore datastore = compactDatastore();
+		Key key = datastore.store(item);
+		datastore.disassociateAll();
+
+		ContainsBlobs loaded = datastore.load(key);
+		Assert.assertEquals(item.counts, loaded.counts);
+		Assert.assertEquals(item.dates[0], loaded.dates[0]);
+	}
+
+	@Test
+	public void compactBlobKeepsSharedValues()
+	{
+		ContainsBlobs item = new ContainsBlobs();
+		ArrayList<String> shared = new ArrayList<String>();
+		shared.add("shared");
+		item.lists = new ArrayList<ArrayList<String>>();
+		item.lists.add(shared);
+		item.lists.add(shared);
+
+		ObjectDatastore datastore = compactDatastore();
+		Key key = datastore.store(item);
+		datastore.disassociateAll();
+
+		ContainsBlobs loaded = datastore.load(key);
+		Assert.assertEquals(item.lists, loaded.lists);
+		Assert.assertSame(loaded.lists.get(0), loaded.lists.get(1));
+	}
+
+	public static class ContainsCompressed
+	{
+		@Compress @Type(Text.class) String text;
+		@Compress @Type(Blob.class) ArrayList<String> lines;
+	}
+
+	@Test
+	public void compressedTextAndBlob()
+	{
+		ContainsCompressed item = new ContainsCompressed();
+		StringBuilder builder = new StringBuilder();
+		item.lines = new ArrayList<String>();
+		for (int i = 0; i < 500; i++)
+		{
+			builder.append("line ").append(i % 10).append('\n');
+			item.lines.add("line " + i % 10);
+		}
+		item.text = builder.toString();
+
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		Key key = datastore.store(item);
+		datastore.disassociateAll();
+
+		ContainsCompressed loaded = datastore.load(key);
+		Assert.assertEquals(item.text, loaded.text);
+		Assert.assertEquals(item.lines, loaded.lines);
+	}
+
+	public static class ContainsText
+	{
+		@Type(Text.class) String text;
+	}
+
+	@Test
+	public void compressedReadWithoutCompression()
+	{
+		ContainsText item = new ContainsText();
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 500; i++)
+		{
+			builder.append("line ").append(i % 10).append('\n');
+		}
+		item.text = builder.toString();
+
+		Key key = new AnnotationObjectDatastore(true, 0, true).store(item);
+
+		// a datastore that does not compress must still expand stored values
+		ContainsText loaded = new AnnotationObjectDatastore().load(key);
+		Assert.assertEquals(item.text, loaded.text);
+	}
+
+	public static class ContainsBlob
+	{
+		Blob data;
+	}
+
+	@Test
+	public void uncompressedBlobLikeHeader()
+	{
+		// starts with the compressed header and a varint length of 4GB
+		ContainsBlob item = new ContainsBlob();
+		item.data = new Blob(new byte[] { (byte) 0xC0, 0x5A, 'B', (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 1, 2 });
+
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		Key key = datastore.store(item);
+		datastore.disassociateAll();
+
+		ContainsBlob loaded = datastore.load(key);
+		Assert.assertEquals(item.data, loaded.data);
+	}
 }
@@ -0,0 +1,99 @@
+package com.vercer.engine.persist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.appengine.api.datastore.Transaction;
+import com.vercer.engine.persist.annotation.AnnotationObjectDatastore;
+import com.vercer.engine.persist.annotation.Id;
+
+public class UnitOfWorkTest extends LocalDatastoreTestCase
+{
+	public static class Note
+	{
+		@Id String name;
+		String text;
+		List<String> tags = new ArrayList<String>();
+
+		public Note()
+		{
+		}
+
+		public Note(String name, String text)
+		{
+			this.name = name;
+			this.text = text;
+		}
+	}
+
+	@Test
+	public void writesWaitForFlush()
+	{
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		datastore.setUnitOfWork(true);
+
+		Note first = new Note("first", "one");
+		datastore.store(first);
+		first.text = "two";
+		datastore.update(first);
+		datastore.store(new Note("second", "removed"));
+		datastore.delete(datastore.load(Note.class, "second"));
+
+		Assert.assertNull(new AnnotationObjectDatastore().load(Note.class, "first"));
+
+		datastore.flush();
+
+		ObjectDatastore other = new AnnotationObjectDatastore();
+		Assert.assertEquals("two", other.load(Note.class, "first").text);
+		Assert.assertNull(other.load(Note.class, "second"));
+	}
+
+	@Test
+	public void disablingFlushes()
+	{
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		datastore.setUnitOfWork(true);
+		datastore.store(new Note("note", "text"));
+		datastore.setUnitOfWork(false);
+
+		Assert.assertEquals("text", new AnnotationObjectDatastore().load(Note.class, "note").text);
+	}
+
+	@Test
+	public void transactionWritesAreNotQueued()
+	{
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		datastore.setUnitOfWork(true);
+		datastore.store(new Note("before", "queued"));
+
+		// beginning the transaction flushes the queue
+		Transaction transaction = datastore.beginTransaction();
+		Assert.assertEquals("queued", new AnnotationObjectDatastore().load(Note.class, "before").text);
+
+		datastore.store(new Note("during", "committed"));
+		transaction.commit();
+
+		Assert.assertEquals("committed", new AnnotationObjectDatastore().load(Note.class, "during").text);
+	}
+
+	@Test
+	public void queuedWritesKeepTheirValues()
+	{
+		ObjectDatastore datastore = new AnnotationObjectDatastore();
+		datastore.setUnitOfWork(true);
+		Note note = new Note("note", "text");
+		note.tags.add("stored");
+		datastore.store(note);
+
+		// changes made after the store are not written by the flush
+		note.tags.add("changed");
+		datastore.flush();
+
+		Note loaded = new AnnotationObjectDatastore().load(Note.class, "note");
+		Assert.assertEquals(Arrays.asList("stored"), loaded.tags);
+	}
+}
@@ -2,10 +2,12 @@ package com.vercer.engine.persist.translators;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -90,4 +92,62 @@ public class CollectionPropertyTranslatorTest
 		assertEquals(3, decoded.size());
 	}
 
+	@Test
+	public void writeReadListWithNulls() throws SecurityException, NoSuchFieldException
+	{
+		values.add(0, null);
+		values.add(null);
+
+		ListTranslator translator = new ListTranslator(new DirectTranslator());
+		Set<Property> encoded = translator.typesafeToProperties(values, Path.EMPTY_PATH, true);
+
+		// nulls are kept as place holders in the single list of values
+		assertEquals(1, encoded.size());
+		assertEquals(5, ((List<?>) encoded.iterator().next().getValue()).size());
+
+		Field field = getClass().getDeclaredField("values");
+
+		@SuppressWarnings("unchecked")
+		List<String> decoded = (List<String>) translator.propertiesToTypesafe(encoded, Path.EMPTY_PATH, field.getGenericType());
+
+		assertEquals(5, decoded.size());
+		assertNull(decoded.get(0));
+		assertEquals("john", decoded.get(1));
+	}
+
+	@Test
+	public void readRowsWithMissingValues() throws SecurityException, NoSuchFieldException
+	{
+		final Path first = new Path.Builder(Path.EMPTY_PATH).field("first").build();
+		final Path second = new Path.Builder(Path.EMPTY_PATH).field("second").build();
+
+		// each item is given only the properties that have a value in its row
+		PropertyTranslator chained = new PropertyTranslator()
+		{
+			public Set<Property> typesafeToProperties(Object object, Path path, boolean indexed)
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			public Object propertiesToTypesafe(Set<Property> properties, Path path, Type type)
+			{
+				StringBuilder builder = new StringBuilder();
+				for (Property property : properties)
+				{
+					builder.append(property.getPath().equals(first) ? "first=" : "second=");
+					builder.append(property.getValue()).append(";");
+				}
+				return builder.toString();
+			}
+		};
+
+		Set<Property> encoded = new HashSet<Property>();
+		encoded.add(new SimpleProperty(second, Arrays.asList("a", null, "c"), true));
+		encoded.add(new SimpleProperty(first, Arrays.asList(1L, 2L, null), true));
+
+		Field field = getClass().getDeclaredField("values");
+		List<?> decoded = (List<?>) new ListTranslator(chained).propertiesToTypesafe(encoded, Path.EMPTY_PATH, field.getGenericType());
+
+		assertEquals(Arrays.asList("first=1;second=a;", "first=2;", "second=c;"), decoded);
+	}
 }